@@ -0,0 +1,69 @@
+package weka.filters.supervised.attribute;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import weka.core.Instances;
+
+/**
+ * End to end throughput of CAIMCPU.batchFinished on synthetic data.
+ * Buffering the input happens outside the measured call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CAIMBenchmark
+{
+	@Param({"10000", "100000"})
+	public int numberInstances;
+
+	@Param({"4", "16"})
+	public int numberAttributes;
+
+	@Param({"2", "10"})
+	public int numberClasses;
+
+	@Param({"0.01", "0.1", "1.0"})
+	public double distinctRatio;
+
+	private Instances data;
+	private CAIMCPU filter;
+
+	@Setup(Level.Trial)
+	public void generate()
+	{
+		data = CAIMBenchmarkData.generate(numberInstances, numberAttributes, numberClasses, distinctRatio, 1);
+	}
+
+	@Setup(Level.Invocation)
+	public void bufferInput() throws Exception
+	{
+		filter = new CAIMCPU();
+		filter.setInputFormat(data);
+		for (int i = 0; i < data.numInstances(); i++)
+			filter.input(data.instance(i));
+	}
+
+	@Benchmark
+	public void batchFinished(Blackhole blackhole) throws Exception
+	{
+		filter.batchFinished();
+		blackhole.consume(filter.numPendingOutput());
+	}
+}
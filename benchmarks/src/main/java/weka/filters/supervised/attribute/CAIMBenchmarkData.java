@@ -0,0 +1,55 @@
+package weka.filters.supervised.attribute;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+/**
+ * Synthetic data sets for the benchmarks. Each numeric attribute takes about
+ * distinctRatio * numberInstances distinct values, and part of each value is
+ * shifted by the class so that CAIM finds several intervals.
+ */
+final class CAIMBenchmarkData
+{
+	private CAIMBenchmarkData() {}
+
+	public static Instances generate(int numberInstances, int numberAttributes, int numberClasses, double distinctRatio, long seed)
+	{
+		Random random = new Random(seed);
+		int distinct = Math.max(2, (int) (distinctRatio * numberInstances));
+
+		ArrayList<Attribute> attributes = new ArrayList<Attribute>(numberAttributes + 1);
+		for (int a = 0; a < numberAttributes; a++)
+			attributes.add(new Attribute("a" + a));
+
+		ArrayList<String> classValues = new ArrayList<String>(numberClasses);
+		for (int c = 0; c < numberClasses; c++)
+			classValues.add("c" + c);
+		attributes.add(new Attribute("class", classValues));
+
+		Instances data = new Instances("synthetic", attributes, numberInstances);
+		data.setClassIndex(numberAttributes);
+
+		for (int i = 0; i < numberInstances; i++)
+		{
+			double[] values = new double[numberAttributes + 1];
+			int classValue = random.nextInt(numberClasses);
+
+			for (int a = 0; a < numberAttributes; a++)
+			{
+				int value = random.nextInt(distinct);
+				if (random.nextBoolean())
+					value = (value / numberClasses) * numberClasses + classValue;
+				values[a] = Math.min(value, distinct - 1) * 0.5;
+			}
+
+			values[numberAttributes] = classValue;
+			data.add(new DenseInstance(1.0, values));
+		}
+
+		return data;
+	}
+}
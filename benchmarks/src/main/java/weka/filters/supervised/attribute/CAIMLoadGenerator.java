@@ -0,0 +1,138 @@
+package weka.filters.supervised.attribute;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import weka.core.Utils;
+
+/**
+ * Sends discretize requests to a running CAIMServer from a number of
+ * concurrent clients and reports throughput and latency percentiles. The
+ * warm-up requests are sent first and not measured.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar weka.filters.supervised.attribute.CAIMLoadGenerator -i train.arff -n 1000 -c 4
+ * </pre>
+ *
+ * -u &lt;server&gt; (default http://localhost:8080), -i &lt;ARFF file to POST&gt; or
+ * -P &lt;path on the server&gt;, -n &lt;requests&gt; (default 1000), -c &lt;clients&gt;
+ * (default 4), -w &lt;warm-up requests&gt; (default 50), -f &lt;filter&gt;,
+ * -O &lt;filter options&gt;, -o &lt;schemes|arff&gt;.
+ */
+public class CAIMLoadGenerator
+{
+	public static void main(String[] args) throws Exception
+	{
+		String server = Utils.getOption('u', args);
+		String file = Utils.getOption('i', args);
+		String path = Utils.getOption('P', args);
+		String requests = Utils.getOption('n', args);
+		String clients = Utils.getOption('c', args);
+		String warmup = Utils.getOption('w', args);
+		String filter = Utils.getOption('f', args);
+		String options = Utils.getOption('O', args);
+		String output = Utils.getOption('o', args);
+
+		if (file.length() == 0 && path.length() == 0)
+			throw new IllegalArgumentException("Give an ARFF file to POST with -i or a path on the server with -P");
+
+		StringBuilder query = new StringBuilder(server.length() != 0 ? server : "http://localhost:8080");
+		query.append("/discretize?output=").append(output.length() != 0 ? output : "schemes");
+		if (filter.length() != 0) query.append("&filter=").append(filter);
+		if (options.length() != 0) query.append("&options=").append(URLEncoder.encode(options, StandardCharsets.UTF_8));
+		if (path.length() != 0) query.append("&path=").append(URLEncoder.encode(path, StandardCharsets.UTF_8));
+
+		URL url = new URL(query.toString());
+		byte[] body = file.length() != 0 ? Files.readAllBytes(Paths.get(file)) : null;
+		int numberRequests = requests.length() != 0 ? Integer.parseInt(requests) : 1000;
+		int numberClients = clients.length() != 0 ? Integer.parseInt(clients) : 4;
+		int numberWarmup = warmup.length() != 0 ? Integer.parseInt(warmup) : 50;
+
+		run(url, body, numberWarmup, numberClients, null);
+
+		long[] latencies = new long[numberRequests];
+		long start = System.nanoTime();
+		int failures = run(url, body, numberRequests, numberClients, latencies);
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		Arrays.sort(latencies);
+		System.out.printf("requests %d, clients %d, failures %d%n", numberRequests, numberClients, failures);
+		System.out.printf("throughput %.1f requests/s%n", numberRequests / seconds);
+		System.out.printf("latency ms: p50 %.2f, p90 %.2f, p99 %.2f, max %.2f%n",
+				percentile(latencies, 0.50), percentile(latencies, 0.90), percentile(latencies, 0.99), latencies[numberRequests - 1] / 1e6);
+	}
+
+	// Sends numberRequests requests from numberClients threads, storing each latency if latencies is given; returns the failures
+	private static int run(URL url, byte[] body, int numberRequests, int numberClients, long[] latencies) throws InterruptedException
+	{
+		AtomicInteger next = new AtomicInteger();
+		AtomicInteger failures = new AtomicInteger();
+		ExecutorService threads = Executors.newFixedThreadPool(numberClients);
+
+		for (int t = 0; t < numberClients; t++)
+			threads.execute(() -> {
+				for (int r; (r = next.getAndIncrement()) < numberRequests; )
+				{
+					long start = System.nanoTime();
+					if (!request(url, body)) failures.incrementAndGet();
+					if (latencies != null) latencies[r] = System.nanoTime() - start;
+				}
+			});
+
+		threads.shutdown();
+		threads.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		return failures.get();
+	}
+
+	// One request, reading the whole answer; false unless the server answered 200
+	private static boolean request(URL url, byte[] body)
+	{
+		try
+		{
+			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+			if (body != null)
+			{
+				connection.setRequestMethod("POST");
+				connection.setDoOutput(true);
+				connection.setFixedLengthStreamingMode(body.length);
+				try (OutputStream out = connection.getOutputStream())
+				{
+					out.write(body);
+				}
+			}
+
+			int code = connection.getResponseCode();
+			try (InputStream in = code == 200 ? connection.getInputStream() : connection.getErrorStream())
+			{
+				ByteArrayOutputStream answer = new ByteArrayOutputStream();
+				if (in != null) in.transferTo(answer);
+				if (code != 200) System.err.print("CAIMLoadGenerator: " + code + " " + answer.toString(StandardCharsets.UTF_8));
+			}
+			return code == 200;
+		}
+		catch (Exception e)
+		{
+			System.err.println("CAIMLoadGenerator: " + e);
+			return false;
+		}
+	}
+
+	// Nearest-rank percentile of sorted latencies, in milliseconds
+	private static double percentile(long[] sorted, double p)
+	{
+		int rank = (int) Math.ceil(p * sorted.length);
+		return sorted[Math.max(0, rank - 1)] / 1e6;
+	}
+}
@@ -0,0 +1,166 @@
+package weka.filters.supervised.attribute;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import weka.core.Instances;
+import weka.filters.Filter;
+
+/**
+ * Each phase of a CAIMCPU run measured on its own, over all numeric
+ * attributes of a synthetic data set: column extraction, sort and
+ * deduplication into the class-count histogram, serially or in shards, the greedy CAIM search,
+ * setOutputFormat, convertInstance, the bulk conversion convertInstances and
+ * streaming input through the trained filter. Rows per second of the last
+ * two are numberInstances divided by their time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CAIMPhaseBenchmark
+{
+	@Param({"10000", "100000"})
+	public int numberInstances;
+
+	@Param({"4", "16"})
+	public int numberAttributes;
+
+	@Param({"2", "10"})
+	public int numberClasses;
+
+	@Param({"0.01", "0.1", "1.0"})
+	public double distinctRatio;
+
+	private Instances data;
+	private CAIMCPU filter;
+
+	// Extracted columns, and scratch copies for the in-place sort
+	private double[][] attributeValues;
+	private int[][] classValues;
+	private int[] lengths;
+	private double[] sortValues;
+	private int[] sortClasses;
+
+	private CAIMHistogram[] histograms;
+
+	@Setup(Level.Trial)
+	public void prepare() throws Exception
+	{
+		data = CAIMBenchmarkData.generate(numberInstances, numberAttributes, numberClasses, distinctRatio, 1);
+
+		filter = new CAIMCPU();
+		filter.setInputFormat(data);
+		Filter.useFilter(data, filter);
+
+		attributeValues = new double[numberAttributes][numberInstances];
+		classValues = new int[numberAttributes][numberInstances];
+		lengths = new int[numberAttributes];
+		histograms = new CAIMHistogram[numberAttributes];
+		sortValues = new double[numberInstances];
+		sortClasses = new int[numberInstances];
+
+		for (int a = 0; a < numberAttributes; a++)
+		{
+			lengths[a] = CAIMHistogram.extract(data, a, data.classIndex(), attributeValues[a], classValues[a]);
+			histograms[a] = CAIMHistogram.build(attributeValues[a].clone(), classValues[a].clone(), lengths[a], numberClasses);
+		}
+	}
+
+	@Benchmark
+	public void extraction(Blackhole blackhole)
+	{
+		for (int a = 0; a < numberAttributes; a++)
+			blackhole.consume(CAIMHistogram.extract(data, a, data.classIndex(), attributeValues[a], classValues[a]));
+	}
+
+	// Includes copying each extracted column into the scratch arrays sorted in place
+	@Benchmark
+	public void sortDedup(Blackhole blackhole)
+	{
+		for (int a = 0; a < numberAttributes; a++)
+		{
+			System.arraycopy(attributeValues[a], 0, sortValues, 0, lengths[a]);
+			System.arraycopy(classValues[a], 0, sortClasses, 0, lengths[a]);
+			blackhole.consume(CAIMHistogram.build(sortValues, sortClasses, lengths[a], numberClasses));
+		}
+	}
+
+	// Shards each attribute across the fork/join pool and k-way merges the shard histograms
+	@Benchmark
+	public void sortDedupSharded(Blackhole blackhole)
+	{
+		for (int a = 0; a < numberAttributes; a++)
+		{
+			System.arraycopy(attributeValues[a], 0, sortValues, 0, lengths[a]);
+			System.arraycopy(classValues[a], 0, sortClasses, 0, lengths[a]);
+			blackhole.consume(CAIMHistogram.buildSharded(sortValues, sortClasses, lengths[a], numberClasses, ForkJoinPool.getCommonPoolParallelism()));
+		}
+	}
+
+	@Benchmark
+	public void search(Blackhole blackhole)
+	{
+		filter.setIntervalCache(false);
+		for (int a = 0; a < numberAttributes; a++)
+			blackhole.consume(filter.CAIM(histograms[a]));
+	}
+
+	@Benchmark
+	public void searchIntervalCache(Blackhole blackhole)
+	{
+		filter.setIntervalCache(true);
+		for (int a = 0; a < numberAttributes; a++)
+			blackhole.consume(filter.CAIM(histograms[a]));
+	}
+
+	@Benchmark
+	public void setOutputFormat(Blackhole blackhole)
+	{
+		filter.setOutputFormat();
+		blackhole.consume(filter.getOutputFormat());
+	}
+
+	@Benchmark
+	public void convertInstance(Blackhole blackhole)
+	{
+		for (int i = 0; i < data.numInstances(); i++)
+			filter.convertInstance(data.instance(i));
+		while (filter.numPendingOutput() > 0)
+			blackhole.consume(filter.output());
+	}
+
+	@Benchmark
+	public void convertInstances(Blackhole blackhole)
+	{
+		blackhole.consume(filter.convertInstances(data));
+	}
+
+	// Each instance is converted and output as it is input, once the filter is trained
+	@Benchmark
+	public void input(Blackhole blackhole) throws Exception
+	{
+		for (int i = 0; i < data.numInstances(); i++)
+		{
+			filter.input(data.instance(i));
+			blackhole.consume(filter.output());
+		}
+		filter.batchFinished();
+	}
+}
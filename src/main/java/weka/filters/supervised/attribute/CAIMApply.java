@@ -0,0 +1,120 @@
+package weka.filters.supervised.attribute;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Vector;
+
+import weka.core.Attribute;
+import weka.core.Capabilities;
+import weka.core.Capabilities.Capability;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.OptionHandler;
+import weka.core.Utils;
+import weka.filters.Filter;
+import weka.filters.StreamableFilter;
+
+/**
+<!-- globalinfo-start -->
+ * Applies CAIM cut points saved by CAIMCPU.saveScheme, without training.
+ * <p/>
+<!-- globalinfo-end -->
+ *
+<!-- options-start -->
+ * Valid options are: <p/>
+ *
+ * <pre> -F &lt;scheme file&gt;
+ *  CAIMSchemeFile holding the cut points</pre>
+ *
+<!-- options-end -->
+ */
+public class CAIMApply extends Filter implements StreamableFilter, OptionHandler
+{
+	private static final long serialVersionUID = 1L;
+
+	//File holding the cut points
+	protected File m_SchemeFile=new File("scheme.caim");
+	//Mapped scheme, loaded by setInputFormat
+	protected transient CAIMSchemeFile m_Scheme;
+	//Converter searching the mapped cut points, sparse aware
+	protected transient CAIMConverter m_Converter;
+
+	//---------------------------------------------------------------------------
+	public boolean setInputFormat(Instances instanceInfo) throws Exception {
+		super.setInputFormat(instanceInfo);
+		m_Scheme=CAIMSchemeFile.read(m_SchemeFile);
+		Instances Header=m_Scheme.header();
+		if (Header.numAttributes()!=instanceInfo.numAttributes())
+			throw new IllegalArgumentException("Input has "+instanceInfo.numAttributes()+" attributes, the scheme "+Header.numAttributes());
+		ArrayList<Attribute> attributes = new ArrayList<Attribute>(Header.numAttributes());
+		for(int current = 0; current < Header.numAttributes(); current++)
+		{
+			Attribute Trained=Header.attribute(current);
+			Attribute Input=instanceInfo.attribute(current);
+			if (!Trained.name().equals(Input.name()) || Trained.type()!=Input.type())
+				throw new IllegalArgumentException("Attribute "+(current+1)+" is "+Input.name()+", the scheme expects "+Trained.name());
+			if (!m_Scheme.isDiscretized(current))
+				attributes.add((Attribute)Input.copy());
+			else
+				attributes.add(new Attribute(Trained.name(),CAIMCPU.IntervalLabels(m_Scheme.cuts(current), m_Scheme.outputInNumeric())));
+		}
+		Instances outputFormat = new Instances(instanceInfo.relationName(), attributes, 0);
+		outputFormat.setClassIndex(instanceInfo.classIndex());
+		setOutputFormat(outputFormat);
+		m_Converter=new CAIMConverter(m_Scheme);
+		return true;
+	}
+	//---------------------------------------------------------------------------
+	public boolean input(Instance instance) {
+		if (getInputFormat() == null) {throw new IllegalStateException("No input instance format defined");}
+		if (m_NewBatch) { resetQueue(); m_NewBatch=false; }
+		convertInstance(instance);
+		return true;
+	}
+	//---------------------------------------------------------------------------
+	protected void convertInstance(Instance instance) {
+		Instance inst = m_Converter.convert(instance);
+		inst.setDataset(getOutputFormat());
+		copyValues(inst, false, instance.dataset(), getOutputFormat());
+		inst.setDataset(getOutputFormat());
+		push(inst);
+	}
+	//---------------------------------------------------------------------------
+	public String globalInfo() {return "Applies CAIM cut points saved by CAIMCPU.saveScheme, without training";}
+	//---------------------------------------------------------------------------
+	public String schemeFileTipText(){ return "CAIMSchemeFile holding the cut points";}
+	//---------------------------------------------------------------------------
+	public File getSchemeFile(){return m_SchemeFile;}
+	//---------------------------------------------------------------------------
+	public void setSchemeFile(File val){m_SchemeFile=val;}
+	//---------------------------------------------------------------------------
+	public Enumeration<Option> listOptions() {
+		Vector<Option> newVector = new Vector<Option>();
+		newVector.addElement(new Option("\tScheme file.","F", 1, "-F <scheme file>"));
+		return newVector.elements();
+	}
+	//---------------------------------------------------------------------------
+	public void setOptions(String[] options) throws Exception {
+		String SchemeFile=Utils.getOption('F', options);
+		if (SchemeFile.length() != 0) setSchemeFile(new File(SchemeFile));
+		if (getInputFormat() != null) setInputFormat(getInputFormat());
+	}
+	//---------------------------------------------------------------------------
+	public String [] getOptions() {
+		return new String[] {"-F", m_SchemeFile.getPath()};
+	}
+	//---------------------------------------------------------------------------
+	public Capabilities getCapabilities() {
+		Capabilities result = super.getCapabilities();
+		result.disableAll();
+		result.enableAllAttributes();
+		result.enableAllClasses();
+		result.enable(Capability.MISSING_CLASS_VALUES);
+		result.enable(Capability.NO_CLASS);
+		return result;
+	}
+	//---------------------------------------------------------------------------
+	public static void main(String[] argv) {runFilter(new CAIMApply(), argv);}
+}
@@ -0,0 +1,84 @@
+package weka.filters.supervised.attribute;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork/join scan of the remaining candidates of one greedy CAIM iteration,
+ * reducing to the candidate with the highest CAIM value. Ties keep the lowest
+ * position, so the result is the one of the sequential scan. As the sequential
+ * scan, it checks the clock every 1024 candidates and is abandoned once out of time.
+ */
+class CAIMArgMax extends RecursiveAction
+{
+	private static final long serialVersionUID = 1L;
+
+	// Fewest candidates worth handing to another worker
+	private static final int MIN_GRAIN = 512;
+
+	private final CAIMEvaluator evaluator;
+	private final int[] candidates;
+	private final int from, to, grain;
+
+	// System.nanoTime at which the scan is abandoned, or 0 for none
+	private final long until;
+
+	int bestPosition = -1;
+	double bestCAIM = 0;
+
+	// Whether part of the scan was abandoned, leaving no result
+	boolean outOfTime = false;
+
+	public CAIMArgMax(CAIMEvaluator evaluator, int[] candidates, int numberCandidates, int parallelism, long until)
+	{
+		this(evaluator, candidates, 0, numberCandidates, Math.max(MIN_GRAIN, numberCandidates / (4 * parallelism)), until);
+	}
+
+	private CAIMArgMax(CAIMEvaluator evaluator, int[] candidates, int from, int to, int grain, long until)
+	{
+		this.evaluator = evaluator;
+		this.candidates = candidates;
+		this.from = from;
+		this.to = to;
+		this.grain = grain;
+		this.until = until;
+	}
+
+	protected void compute()
+	{
+		if (to - from <= grain)
+		{
+			for (int pos = from; pos < to; pos++)
+			{
+				if ((pos & 0x3FF) == 0x3FF && CAIMCPU.OutOfTime(until))
+				{
+					outOfTime = true;
+					return;
+				}
+				double CurrentCAIM = evaluator.evaluate(candidates[pos]);
+
+				if (CurrentCAIM > bestCAIM)
+				{
+					bestCAIM = CurrentCAIM;
+					bestPosition = pos;
+				}
+			}
+			return;
+		}
+
+		int mid = (from + to) >>> 1;
+		CAIMArgMax left = new CAIMArgMax(evaluator, candidates, from, mid, grain, until);
+		CAIMArgMax right = new CAIMArgMax(evaluator, candidates, mid, to, grain, until);
+		invokeAll(left, right);
+
+		outOfTime = left.outOfTime || right.outOfTime;
+
+		bestPosition = left.bestPosition;
+		bestCAIM = left.bestCAIM;
+
+		if (right.bestCAIM > bestCAIM)
+		{
+			bestCAIM = right.bestCAIM;
+			bestPosition = right.bestPosition;
+		}
+	}
+}
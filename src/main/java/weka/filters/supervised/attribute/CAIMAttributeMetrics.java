@@ -0,0 +1,119 @@
+package weka.filters.supervised.attribute;
+
+/**
+ * Measurements of the discretization of one attribute. Times are in
+ * nanoseconds. Counts that a backend cannot report, such as those of the
+ * GPU kernels, are -1.
+ */
+public class CAIMAttributeMetrics
+{
+	final int attribute;
+	final String name;
+
+	long extractionNanos;
+	long sortNanos;
+	long searchNanos;
+
+	int distinctValues = -1;
+	long candidatesEvaluated = -1;
+	int iterations = -1;
+	int intervals;
+	boolean truncated;
+	boolean pruningMismatch;
+
+	CAIMAttributeMetrics(int attribute, String name)
+	{
+		this.attribute = attribute;
+		this.name = name;
+	}
+
+	public int getAttribute()
+	{
+		return attribute;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * Copying the attribute and class columns out of the instances, or for dense
+	 * input, reading the attribute into interval codes for the conversion.
+	 */
+	public long getExtractionNanos()
+	{
+		return extractionNanos;
+	}
+
+	/**
+	 * Sorting and deduplicating into the class-count histogram.
+	 */
+	public long getSortNanos()
+	{
+		return sortNanos;
+	}
+
+	/**
+	 * The greedy CAIM search.
+	 */
+	public long getSearchNanos()
+	{
+		return searchNanos;
+	}
+
+	public long getTotalNanos()
+	{
+		return extractionNanos + sortNanos + searchNanos;
+	}
+
+	public int getDistinctValues()
+	{
+		return distinctValues;
+	}
+
+	/**
+	 * Candidate midpoints scored, summed over the iterations.
+	 */
+	public long getCandidatesEvaluated()
+	{
+		return candidatesEvaluated;
+	}
+
+	/**
+	 * Greedy iterations, including the last one that found no improvement.
+	 */
+	public int getIterations()
+	{
+		return iterations;
+	}
+
+	public int getIntervals()
+	{
+		return intervals;
+	}
+
+	/**
+	 * Whether the search stopped on a time budget or the interval cap, with its best scheme so far.
+	 */
+	public boolean isTruncated()
+	{
+		return truncated;
+	}
+
+	/**
+	 * Whether, validating boundary pruning, the pruned scheme differed from the exhaustive one.
+	 */
+	public boolean isPruningMismatch()
+	{
+		return pruningMismatch;
+	}
+
+	public String toString()
+	{
+		return name + ": " + distinctValues + " values, " + candidatesEvaluated + " candidates in " + iterations + " iterations, "
+				+ intervals + " intervals, extraction " + extractionNanos / 1000000.0 + " ms, sort " + sortNanos / 1000000.0
+				+ " ms, search " + searchNanos / 1000000.0 + " ms" + (truncated ? ", truncated" : "")
+				+ (pruningMismatch ? ", pruning mismatch" : "");
+	}
+}
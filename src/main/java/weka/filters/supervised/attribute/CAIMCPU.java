@@ -20,18 +20,21 @@
  */ 
 package weka.filters.supervised.attribute;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import weka.core.Attribute;
 import weka.core.Capabilities;
 import weka.core.Capabilities.Capability;
-import weka.core.DenseInstance;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.Option;
@@ -40,6 +43,7 @@ import weka.core.Range;
 import weka.core.SparseInstance;
 import weka.core.Utils;
 import weka.filters.Filter;
+import weka.filters.StreamableFilter;
 import weka.filters.SupervisedFilter;
 
 /**
@@ -80,12 +84,49 @@ import weka.filters.SupervisedFilter;
  * <pre> -C &lt;Name of class's column&gt;
  *  Name of column contains class (default class)</pre>
  * 
+ * <pre> -L
+ *  Cache the best split of each interval instead of rescanning all candidates</pre>
+ * 
+ * <pre> -P
+ *  Only consider midpoints where the class distribution changes</pre>
+ * 
+ * <pre> -V
+ *  With -P, also run the exhaustive search and report attributes where it differs</pre>
+ * 
+ * <pre> -J
+ *  Publish run and attribute metrics through the CAIMMetrics MXBean</pre>
+ * 
+ * <pre> -S &lt;number of bins&gt;
+ *  Summarize instances as they arrive, in at most this many bins per attribute (default 0, off).
+ *  The training batch is then not output: output() throws until the instances are input again</pre>
+ * 
+ * <pre> -W &lt;worker,worker,...&gt;
+ *  Discretize on CAIMWorker processes, given as host:port or local (default none, this JVM)</pre>
+ * 
+ * <pre> -I
+ *  Keep each attribute's histogram after a batch, for incremental updates</pre>
+ * 
+ * <pre> -U &lt;distance&gt;
+ *  In update, keep the scheme of attributes whose class distribution moved less (default 0.01)</pre>
+ * 
+ * <pre> -T &lt;milliseconds&gt;
+ *  Stop the search of an attribute after this long, keeping its best scheme so far (default 0, no limit)</pre>
+ * 
+ * <pre> -B &lt;milliseconds&gt;
+ *  Stop the searches of a batch this long after it started, keeping their best schemes so far (default 0, no limit)</pre>
+ * 
+ * <pre> -M &lt;number of intervals&gt;
+ *  Stop the search of an attribute at this many intervals (default 0, no limit)</pre>
+ * 
+ * <pre> -X &lt;megabytes&gt;
+ *  Run attribute jobs together only while their estimated memory fits (default 0, no limit)</pre>
+ * 
 <!-- options-end -->
  *
  * @author Dat Nguyen (nguyendt22@vcu.edu)
  */ 
 
-public class CAIMCPU extends Filter implements SupervisedFilter, OptionHandler
+public class CAIMCPU extends Filter implements SupervisedFilter, StreamableFilter, OptionHandler
 {
 	private static final long serialVersionUID = 1L;
 
@@ -101,119 +142,273 @@ public class CAIMCPU extends Filter implements SupervisedFilter, OptionHandler
 	protected ArrayList<String> ClassValueList;
 	//Position of class's column
 	protected int Index=-1 ;
+	//Cache the best split of each interval instead of rescanning all candidates
+	protected boolean m_IntervalCache=false;
+	//Split each iteration's candidate scan across the fork/join pool
+	protected boolean m_ParallelSearch=false;
+	//Fewest rows per shard when an attribute's sort is split across the fork/join pool
+	protected static final int SHARD_ROWS=1<<16;
+	//Histograms of a full data set the input is a weighted subset of, with the weight of each row
+	protected transient CAIMFoldHistograms m_FoldHistograms;
+	protected transient int[] m_RowWeights;
+	//Rows of the full data set whose weight is not one, the only ones recounted per attribute
+	protected transient int[] m_ReweightedRows;
+	//Stored values of sparse input, gathered once per batch
+	protected transient CAIMSparseColumns m_SparseColumns;
+	//Interval of each row of the discretized attributes of dense input, from their search until the batch conversion
+	protected transient CAIMColumnStore m_Columns;
+	//Only consider midpoints where the class distribution changes between neighbouring values
+	protected boolean m_BoundaryCandidates=false;
+	//Also run the exhaustive search and report the attributes whose pruned scheme differs
+	protected boolean m_ValidatePruning=false;
+	//Attributes whose pruned scheme differed from the exhaustive one in the last batch
+	protected ArrayList<Integer> m_PruningMismatches=new ArrayList<Integer>();
+	//Executor running the per-attribute jobs, a shared work-stealing pool if null
+	protected transient ExecutorService m_Executor;
+	//Told as each attribute's scheme is ready
+	protected transient CAIMProgressListener m_ProgressListener;
+	//System.currentTimeMillis() time by which batchFinished must be done, 0 for none
+	protected long m_Deadline=0;
+	//Set to stop the batch in progress
+	protected transient AtomicBoolean m_Cancelled=new AtomicBoolean();
+	//Told the measurements of each attribute and run
+	protected transient CAIMMetricsListener m_MetricsListener;
+	//Also report measurements to the CAIMMetrics MXBean
+	protected boolean m_JMXMetrics=false;
+	//Measurements of the last batch, per attribute (null if not discretized) and for the run
+	protected transient CAIMAttributeMetrics[] m_AttributeMetrics;
+	protected transient CAIMRunMetrics m_RunMetrics;
+	//Primitive cut points of the learned scheme, built with the output format
+	protected transient CAIMConverter m_Converter;
+	//Summarize instances as they arrive in at most this many bins per attribute instead of buffering them, 0 to buffer
+	protected int m_StreamingBins=0;
+	//Per attribute summaries of the instances seen so far in streaming mode
+	protected transient CAIMStreamingHistogram[] m_Summaries;
+	//Whether the streaming training batch took instances, which are summarized but never output
+	protected transient boolean m_StreamingUnconverted;
+	//Comma-separated CAIMWorker addresses, host:port or local, to discretize on instead of this JVM
+	protected String m_Workers="";
+	//Workers that failed in the last batch, whose shards were rescheduled
+	protected int m_WorkerFailures=0;
+	//Keep each attribute's histogram after a batch, so update can merge new batches into it
+	protected boolean m_KeepHistograms=false;
+	//Kept histograms of the discretized attributes, null for the others
+	protected transient CAIMHistogram[] m_Histograms;
+	//In update, attributes whose class distribution moved by less than this total variation distance keep their scheme
+	protected double m_UpdateThreshold=0.01;
+	//Attributes searched again by the last update
+	protected ArrayList<Integer> m_UpdatedAttributes=new ArrayList<Integer>();
+	//Milliseconds the search of one attribute may take before it stops with its best scheme so far, 0 for no limit
+	protected long m_AttributeTimeBudget=0;
+	//Milliseconds from the start of a batch after which its searches stop with their best schemes so far, 0 for no limit
+	protected long m_RunTimeBudget=0;
+	//Intervals at which the search of an attribute stops, 0 for no limit
+	protected int m_MaxIntervals=0;
+	//System.nanoTime() at which the run time budget of the batch in progress ends, 0 for none
+	protected transient long m_RunBudgetEnd=0;
+	//Attributes whose search stopped on a budget or the interval cap in the last batch
+	protected ArrayList<Integer> m_TruncatedAttributes=new ArrayList<Integer>();
+	//Megabytes the attribute jobs running at once may hold by their estimated footprints, 0 for no limit
+	protected long m_MemoryBudget=0;
+	//Estimated footprint of each attribute of the batch in progress, null without a memory budget
+	protected transient long[] m_Footprints;
+	//Bytes of the memory budget left to the attribute jobs of the batch in progress, after what the run holds throughout
+	protected transient long m_JobMemory;
+	//Attributes whose histogram was built from spilled chunks in the last batch
+	protected ArrayList<Integer> m_SpilledAttributes=new ArrayList<Integer>();
 
 	//---------------------------------------------------------------------------
-	protected double CalculateCAIM(Vector<Double> D,double pointvalue,Object[] value, int[][]Appearance)
+	protected ArrayList<Double> CAIM (Instances Table, int column,int Class)
 	{
-		ArrayList<Double> tempD= new ArrayList<Double>(D);
-		tempD.add(pointvalue);
-		Object[] tempSort= tempD.toArray();
-		Arrays.sort(tempSort);
-		int TotalCol=tempSort.length-1;
-		int TotalRow=ClassValueList.size()+1;
-		int [][] QuantaMatrix= new int[TotalRow][TotalCol];
-		for (int i=0;i<TotalCol;i++)
-		{
-			double min=Double.parseDouble(tempSort[i].toString());
-			double max=Double.parseDouble(tempSort[i+1].toString());
-			int left=0, right=0;
-			for (;Double.parseDouble(value[left].toString())<min;left++);
-			for (;right < value.length && Double.parseDouble(value[right].toString())<=max;right++);
-			int SumCol=0;
-			for (int c=0;c<TotalRow-1;c++)
-			{
-				int sum=0;
-				for (int col=left;col<right;col++) sum+=Appearance[c][col];
-				QuantaMatrix[c][i]=sum;
-				SumCol+=sum;
-			}
-			QuantaMatrix[TotalRow-1][i]=SumCol;	  
-		}
-
-		double CAIMvalue=0;
-		for (int col=0;col<TotalCol;col++)
-		{
-			long max=0;
-			for (int c=0;c<TotalRow-1;c++) max=QuantaMatrix[c][col]>max?QuantaMatrix[c][col]:max;
-			double res = max / (double)QuantaMatrix[TotalRow-1][col];
-			CAIMvalue+= max * res;
-		}
-		CAIMvalue=CAIMvalue/(tempSort.length-1);
-		return CAIMvalue;
+		return CAIM(CAIMHistogram.build(Table, column, Class, ClassValueList.size()));
 	}
 	//---------------------------------------------------------------------------
-	protected ArrayList<Double> CAIM (Instances Table, int column,int Class)
+	protected ArrayList<Double> CAIM (CAIMHistogram Histogram)
+	{
+		return CAIM(Histogram, m_BoundaryCandidates);
+	}
+	//---------------------------------------------------------------------------
+	protected ArrayList<Double> CAIM (CAIMHistogram Histogram, boolean BoundaryOnly)
+	{
+		return CAIM(Histogram, BoundaryOnly, new CAIMAttributeMetrics(-1, null));
+	}
+	//---------------------------------------------------------------------------
+	protected ArrayList<Double> CAIM (CAIMHistogram Histogram, boolean BoundaryOnly, CAIMAttributeMetrics Metrics)
+	{
+		return CAIM(Histogram, BoundaryOnly, Metrics, null);
+	}
+	//---------------------------------------------------------------------------
+	// Resumes the search from the cut points of Start, or from the end points only if null
+	protected ArrayList<Double> CAIM (CAIMHistogram Histogram, boolean BoundaryOnly, CAIMAttributeMetrics Metrics, List<Double> Start)
 	{
+		Metrics.distinctValues=Histogram.numberValues;
+		Metrics.candidatesEvaluated=0;
+		Metrics.iterations=0;
+		Metrics.truncated=false;
 		ArrayList<Double> Scheme=new ArrayList<Double>();
-		Vector<Double> temp= new Vector<Double>();
-		for (int i=0;i<Table.numInstances();i++)
-			if (temp.indexOf(Table.instance(i).value(column))<0)
-				temp.add(Table.instance(i).value(column));
-		Object[] value= temp.toArray();
-		Arrays.sort(value);
-		int[][] Appearance = new int[ClassValueList.size()][value.length];
-		for (int i=0;i<Table.numInstances();i++)
-		{
-			int row=ClassValueList.indexOf(Table.instance(i).stringValue(Class));
-			int col=Arrays.binarySearch(value, Table.instance(i).value(column));
-			Appearance[row][col]++;
-		}
-		Vector<Double> D = new Vector<Double>();
-		D.add((Double) value[0]);
-		D.add((Double) value[value.length-1]);
-		Vector<Double> B= new Vector<Double>();
-		for (int i=0;i<=value.length-2;i++)
-			B.add((Double.parseDouble(value[i].toString())+Double.parseDouble(value[i+1].toString()))/2);
+		if (Histogram.numberValues==0) return Scheme;
+		long Until=SearchEnd();
+		CAIMEvaluator Evaluator = new CAIMEvaluator(Histogram, BoundaryOnly);
+		if (m_IntervalCache && Start==null) return CAIMIntervalCache(Evaluator, Histogram, Metrics, Until);
+		// Remaining candidate midpoints, in ascending order
+		int TotalB=Evaluator.numberCandidates();
+		int[] B= new int[TotalB];
+		for (int i=0;i<TotalB;i++) B[i]=i;
+		// Scheme boundaries, kept sorted
+		double[] D = new double[TotalB+2+(Start==null ? 0 : Start.size())];
+		int TotalD=2;
+		D[0]=Histogram.minimum();
+		D[1]=Histogram.maximum();
 		double GlobalCAIM=0;
 		int step=1;
+		if (Start!=null && Start.size()>2)
+		{
+			// Inner cut points of the previous scheme, then candidates not among them
+			TotalD=1;
+			for (int i=1;i<Start.size()-1;i++)
+				if (Start.get(i)>=Histogram.minimum() && Start.get(i)<=Histogram.maximum()) D[TotalD++]=Start.get(i);
+			Evaluator.setRetained(Arrays.copyOfRange(D, 1, TotalD));
+			D[TotalD++]=Histogram.maximum();
+			int Kept=0;
+			for (int pos=0;pos<TotalB;pos++)
+				if (Arrays.binarySearch(D, 0, TotalD, Evaluator.candidate(B[pos]))<0) B[Kept++]=B[pos];
+			TotalB=Kept;
+			Evaluator.setBoundaries(D, TotalD);
+			GlobalCAIM=Evaluator.schemeCAIM();
+			step=TotalD-1;
+		}
 		int LastStep=0;
 		LastStep=ClassValueList.size();
 		boolean notdone=true;
-		if (B.size()==0) notdone=false;
+		if (TotalB==0) notdone=false;
 		while(notdone)
 		{
+			CheckCancelled();
+			if (OutOfTime(Until)) { Metrics.truncated=true; break; }
+			Metrics.iterations++;
+			Metrics.candidatesEvaluated+=TotalB;
 			double MaxCAIM=0;
 			int midpoint=-1;
-			for (int pos=0;pos<B.size();pos++)
+			Evaluator.setBoundaries(D, TotalD);
+			if (m_ParallelSearch)
 			{
-				double CurrentCAIM=CalculateCAIM(D,Double.parseDouble(B.get(pos).toString()),value,Appearance);
-
-				if (CurrentCAIM>MaxCAIM)
+				ForkJoinPool Pool=ForkJoinPool.commonPool();
+				CAIMArgMax Search=new CAIMArgMax(Evaluator, B, TotalB, Pool.getParallelism(), Until);
+				Pool.invoke(Search);
+				MaxCAIM=Search.bestCAIM;
+				midpoint=Search.bestPosition;
+				// A scan abandoned out of time keeps the scheme so far, as the sequential scan
+				if (Search.outOfTime) { Metrics.truncated=true; midpoint=-1; }
+			}
+			else
+				for (int pos=0;pos<TotalB;pos++)
 				{
-					MaxCAIM=CurrentCAIM;
-					midpoint=pos;
+					// A long scan is abandoned once out of time, keeping the scheme so far
+					if ((pos&0x3FF)==0x3FF && OutOfTime(Until)) { Metrics.truncated=true; midpoint=-1; break; }
+					double CurrentCAIM=Evaluator.evaluate(B[pos]);
+
+					if (CurrentCAIM>MaxCAIM)
+					{
+						MaxCAIM=CurrentCAIM;
+						midpoint=pos;
+					}
 				}
-			}
 
 			if (midpoint==-1) break;
 
 			if (!CheckConditionStop(MaxCAIM, GlobalCAIM,step,LastStep))
 			{
+				if (m_MaxIntervals>0 && TotalD-1>=m_MaxIntervals) { Metrics.truncated=true; break; }
 				GlobalCAIM=MaxCAIM;
-				D.add(B.get(midpoint));
-				B.remove(midpoint);
+				double point=Evaluator.candidate(B[midpoint]);
+				int insert=TotalD;
+				while (insert>0 && Double.compare(D[insert-1], point)>0) insert--;
+				System.arraycopy(D, insert, D, insert+1, TotalD-insert);
+				D[insert]=point;
+				TotalD++;
+				System.arraycopy(B, midpoint+1, B, midpoint, TotalB-midpoint-1);
+				TotalB--;
 				step++;
 			}
 			else
 				break;
-			if (B.size()==0) break;
+			if (TotalB==0) break;
 		}
-		Object[] tempSort= D.toArray();
-		Arrays.sort(tempSort);
-		for (int j=0;j<ClassValueList.size();j++)
+		Scheme.ensureCapacity(TotalD);
+		for (int i=0;i<TotalD;i++)Scheme.add(D[i]);
+		return Scheme;
+	}
+	//---------------------------------------------------------------------------
+	/**
+	 * Scheme of one attribute. When validating boundary pruning, the exhaustive scheme is
+	 * also computed, and a mismatch is recorded for getPruningMismatches and the attribute's
+	 * metrics. The pruned scheme is kept.
+	 */
+	protected ArrayList<Double> Discretize (CAIMHistogram Histogram, int attribute, CAIMAttributeMetrics Metrics)
+	{
+		ArrayList<Double> Scheme=CAIM(Histogram, m_BoundaryCandidates, Metrics);
+		if (!m_BoundaryCandidates || !m_ValidatePruning) return Scheme;
+		ArrayList<Double> Exhaustive=CAIM(Histogram, false);
+		if (!Scheme.equals(Exhaustive))
+		{
+			synchronized (m_PruningMismatches) { m_PruningMismatches.add(attribute); }
+			Metrics.pruningMismatch=true;
+		}
+		return Scheme;
+	}
+	//---------------------------------------------------------------------------
+	protected ArrayList<Double> CAIMIntervalCache (CAIMEvaluator Evaluator, CAIMHistogram Histogram, CAIMAttributeMetrics Metrics, long Until)
+	{
+		CAIMIntervalSearch Search=new CAIMIntervalSearch(Evaluator, Histogram.minimum(), Histogram.maximum());
+		double GlobalCAIM=0;
+		int step=1;
+		int LastStep=ClassValueList.size();
+		while (Search.hasCandidates())
 		{
-			for (int i=1;i<tempSort.length;i++)
+			CheckCancelled();
+			if (OutOfTime(Until)) { Metrics.truncated=true; break; }
+			Metrics.iterations++;
+			double MaxCAIM=Search.bestCAIM();
+			if (!(MaxCAIM>0)) break;
+
+			if (!CheckConditionStop(MaxCAIM, GlobalCAIM,step,LastStep))
 			{
-				double min=	(Double)tempSort[i-1];
-				double max=	(Double)tempSort[i];
-				int left=0, right=value.length-1;
-				while ((Double)value[left]<min)left++;
-				while ((Double)value[right]>max)right--;
+				if (m_MaxIntervals>0 && Search.numberBoundaries()-1>=m_MaxIntervals) { Metrics.truncated=true; break; }
+				GlobalCAIM=MaxCAIM;
+				Search.split();
+				step++;
 			}
+			else
+				break;
 		}
-		for (int i=0;i<tempSort.length;i++)Scheme.add(Double.parseDouble(tempSort[i].toString()));
+		Metrics.candidatesEvaluated=Search.candidatesEvaluated();
+		double[] D=Search.boundaries();
+		ArrayList<Double> Scheme=new ArrayList<Double>(D.length);
+		for (int i=0;i<D.length;i++)Scheme.add(D[i]);
 		return Scheme;
 	}
+	//---------------------------------------------------------------------------
+	// System.nanoTime() at which a search starting now must stop, the earlier of its own and the run's budget, 0 for never
+	protected long SearchEnd()
+	{
+		long End=m_RunBudgetEnd;
+		if (m_AttributeTimeBudget>0)
+		{
+			long Own=System.nanoTime()+m_AttributeTimeBudget*1000000L;
+			if (End==0 || Own-End<0) End=Own;
+		}
+		return End;
+	}
+	//---------------------------------------------------------------------------
+	protected static boolean OutOfTime(long Until)
+	{
+		return Until!=0 && System.nanoTime()-Until>=0;
+	}
+	//---------------------------------------------------------------------------
+	protected void CheckCancelled()
+	{
+		if (m_Cancelled!=null && m_Cancelled.get()) throw new CancellationException("Discretization cancelled");
+	}
 	//---------------------------------------------------------------------------  
 	protected boolean CheckConditionStop(double MaxCAIM, double GlobalCAIM,int step, int LastStep)
 	{
@@ -223,6 +418,7 @@ public class CAIMCPU extends Filter implements SupervisedFilter, OptionHandler
 	protected void setOutputFormat() {
 		Instances Data = getInputFormat();
 		ArrayList<Attribute> attributes = new ArrayList<Attribute>(Data.numAttributes());
+		boolean[] Discretized = new boolean[Data.numAttributes()];
 		for(int current = 0; current < Data.numAttributes(); current++)
 		{
 			if ((!Data.attribute(current).isNumeric())||(!m_DiscretizeCols.isInRange(current))||(current==Index) )
@@ -230,53 +426,47 @@ public class CAIMCPU extends Filter implements SupervisedFilter, OptionHandler
 				attributes.add((Attribute)Data.attribute(current).copy());
 				continue;
 			}
-			ArrayList<String> attribValues = new ArrayList<String>(1);
-			ArrayList<Double> l = SchemeList.get(current);
-			for (int i=0;i<l.size()-1;i++)
-				if(m_OutputInNumeric)
-					attribValues.add(Integer.toString(i));
-				else
-				{
-					String s="["+l.get(i).toString()+"-"+l.get(i+1).toString()+")";
-					if (i==(l.size()-2))
-						s=s.replace(")", "]");
-					attribValues.add(s);
-				}
-			attributes.add(new Attribute(Data.attribute(current).name(),attribValues));
+			Discretized[current]=true;
+			attributes.add(new Attribute(Data.attribute(current).name(),IntervalLabels(SchemeList.get(current), m_OutputInNumeric)));
 
 		}//end for current
-		Instances outputFormat =  new Instances(Data.relationName(), attributes, 0);
+		Instances outputFormat =  new Instances(Data.relationName()+TruncatedSuffix(Data), attributes, 0);
 		setOutputFormat(outputFormat);
+		m_Converter=new CAIMConverter(SchemeList, Discretized);
 	}
 	//---------------------------------------------------------------------------
-	protected void convertInstance(Instance instance) {
-		double [] vals = new double [outputFormatPeek().numAttributes()];
-		Instances Data = getInputFormat();
-		for(int current = 0; current < Data.numAttributes(); current++)
-		{
-			if ((!Data.attribute(current).isNumeric())||(!m_DiscretizeCols.isInRange(current))||(current==Index) )
-				vals[current]=instance.value(current);
+	// Names the attributes whose search was truncated, for the output relation name
+	protected String TruncatedSuffix(Instances Data)
+	{
+		int[] Truncated=getTruncatedAttributes();
+		if (Truncated.length==0) return "";
+		StringBuilder Suffix=new StringBuilder("-truncated");
+		for (int attribute : Truncated) Suffix.append(attribute==Truncated[0] ? ":" : ",").append(Data.attribute(attribute).name());
+		return Suffix.toString();
+	}
+	//---------------------------------------------------------------------------
+	// Nominal values of an attribute discretized with the given cut points
+	protected static ArrayList<String> IntervalLabels(List<Double> l, boolean OutputInNumeric)
+	{
+		ArrayList<String> attribValues = new ArrayList<String>(1);
+		for (int i=0;i<l.size()-1;i++)
+			if(OutputInNumeric)
+				attribValues.add(Integer.toString(i));
 			else
 			{
-				ArrayList<Double> l = SchemeList.get(current);
-				int k=0;
-				while (instance.value(current)> Double.parseDouble(l.get(k).toString()))
-				{
-					k++;
-					if (k==l.size())break;
-				}
-				k--;
-				if (k<0)k=0;
-				if(k == l.size()-1)	k--;
-				vals[current]=k;
+				String s="["+l.get(i).toString()+"-"+l.get(i+1).toString()+")";
+				if (i==(l.size()-2))
+					s=s.replace(")", "]");
+				attribValues.add(s);
 			}
-		}//end for current
-		Instance inst = null;
-		if (instance instanceof SparseInstance) {
-			inst = new SparseInstance(instance.weight(), vals);
-		} else {
-			inst = new DenseInstance(instance.weight(), vals);
-		}
+		return attribValues;
+	}
+	//---------------------------------------------------------------------------
+	protected void convertInstance(Instance instance) {
+		convertInstance(instance, m_Converter.convert(instance));
+	}
+	//---------------------------------------------------------------------------
+	protected void convertInstance(Instance instance, Instance inst) {
 		inst.setDataset(getOutputFormat());
 		copyValues(inst, false, instance.dataset(), getOutputFormat());
 		inst.setDataset(getOutputFormat());
@@ -284,38 +474,57 @@ public class CAIMCPU extends Filter implements SupervisedFilter, OptionHandler
 	}
 
 	protected Instance convertInstanceTest(Instance instance) {
-		double [] vals = new double [outputFormatPeek().numAttributes()];
-		Instances Data = getInputFormat();
-		for(int current = 0; current < Data.numAttributes(); current++)
+		return m_Converter.convert(instance);
+	}
+	//---------------------------------------------------------------------------
+	/**
+	 * Discretizes data with the learned scheme, converting it in parallel chunks, without
+	 * training or queuing output. data must have the input's header. Each output instance
+	 * takes the values array its chunk wrote, with no further copy.
+	 */
+	public Instances convertInstances(Instances data)
+	{
+		if (m_Converter == null) {throw new IllegalStateException("No scheme learned yet");}
+		if (!data.equalHeaders(getInputFormat())) {throw new IllegalArgumentException(data.equalHeadersMsg(getInputFormat()));}
+		Instances Output=new Instances(getOutputFormat(), data.numInstances());
+		Instance[] Converted=m_Converter.convert(data);
+		boolean Strings=Output.checkForStringAttributes() || Output.checkForAttributeType(Attribute.RELATIONAL);
+		for (int i=0;i<Converted.length;i++)
 		{
-			if ((!Data.attribute(current).isNumeric())||(!m_DiscretizeCols.isInRange(current))||(current==Index) )
-				vals[current]=instance.value(current);
-			else
-			{
-				ArrayList<Double> l = SchemeList.get(current);
-				int k=0;
-				while (instance.value(current)> Double.parseDouble(l.get(k).toString()))
-				{
-					k++;
-					if (k==l.size())break;
-				}
-				k--;
-				if (k<0)k=0;
-				if(k == l.size()-1)	k--;
-				vals[current]=k;
-			}
-		}//end for current
-		Instance inst = null;
-		if (instance instanceof SparseInstance) {
-			inst = new SparseInstance(instance.weight(), vals);
-		} else {
-			inst = new DenseInstance(instance.weight(), vals);
+			if (Strings) CopyStrings(data.instance(i), Converted[i], Output);
+			Converted[i].setDataset(Output);
+			Output.add(Converted[i]);
+		}
+		return Output;
+	}
+	//---------------------------------------------------------------------------
+	// Carries the string and relational values of an unchanged attribute into Output, whose own values they become
+	protected static void CopyStrings(Instance From, Instance To, Instances Output)
+	{
+		for (int a=0;a<Output.numAttributes();a++)
+		{
+			Attribute Target=Output.attribute(a);
+			if (From.isMissing(a)) continue;
+			if (Target.isString()) To.setValue(a, Target.addStringValue(From.stringValue(a)));
+			else if (Target.isRelationValued()) To.setValue(a, Target.addRelation(From.relationalValue(a)));
 		}
-		return inst;
+	}
+	//---------------------------------------------------------------------------
+	// Converts the buffered input in parallel chunks and pushes it in order
+	protected void convertInput() {
+		Instances Data = getInputFormat();
+		Instance[] Converted = m_Converter.convert(Data, m_Columns);
+		for(int i = 0; i < Data.numInstances(); i++)
+			convertInstance(Data.instance(i), Converted[i]);
 	}
 	//---------------------------------------------------------------------------
 	public boolean batchFinished()  throws Exception
 	{
+		ClearCancelled();
+		if (m_StreamingBins>0) { CheckOptions(); return streamingBatchFinished(); }
+		// Later batches were converted as they arrived
+		if (isFirstBatchDone()) return BatchDone();
+		long Start=System.nanoTime();
 		Instances Data=  getInputFormat();
 		SchemeList= new ArrayList<>(Data.numAttributes());
 		Attribute ClassAttribute=Data.attribute(Data.numAttributes()-1);
@@ -323,43 +532,489 @@ public class CAIMCPU extends Filter implements SupervisedFilter, OptionHandler
 		if (o ==null)
 		{ throw new Exception("Wrong name in class's attribute");}
 		Index=ClassAttribute.index();
+		CheckOptions();
+		if (m_FoldHistograms!=null)
+		{
+			int Total=0;
+			for (int w : m_RowWeights) Total+=w;
+			if (m_FoldHistograms.numAttributes()!=Data.numAttributes() || Total!=Data.numInstances())
+				throw new IllegalStateException("Training rows do not match the input data");
+		}
 		Enumeration<Object> enu=ClassAttribute.enumerateValues();
 		ClassValueList= new ArrayList<String>();
 		while(enu.hasMoreElements())ClassValueList.add((String)enu.nextElement());
+		m_PruningMismatches.clear();
 
 		for (int current=0;current<Data.numAttributes();current++)
 			SchemeList.add(new ArrayList<Double>());
 
-		ExecutorService threadExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-
+		ArrayList<Integer> Attributes=new ArrayList<Integer>();
 		for (int current=0;current<Data.numAttributes();current++)
 		{
 			if (current==Index) { continue;}
 			if (!Data.attribute(current).isNumeric()){ continue;}
 			if (!m_DiscretizeCols.isInRange(current)) { continue;}
 
-			threadExecutor.execute(new evaluationThread(Data, current));
+			Attributes.add(current);
 		}
 
-		threadExecutor.shutdown();
+		// With fewer attributes than cores, also parallelise within each attribute
+		m_ParallelSearch = Attributes.size() < Runtime.getRuntime().availableProcessors();
+
+		int[] Columns=new int[Attributes.size()];
+		for (int k=0;k<Columns.length;k++)
+			Columns[k]=Attributes.get(k);
+
+		CAIMRunMetrics Run=StartRun(Data, Columns.length);
+		m_Histograms=m_KeepHistograms ? new CAIMHistogram[Data.numAttributes()] : null;
 
+		m_Columns=null;
+		// Sparse input is read from its stored values only, in one pass
+		if (m_FoldHistograms==null && m_Workers.length()==0 && Data.numInstances()>0 && Data.instance(0) instanceof SparseInstance)
+		{
+			boolean[] Sparse=new boolean[Data.numAttributes()];
+			for (int column : Columns) Sparse[column]=true;
+			long Gathering=System.nanoTime();
+			m_SparseColumns=new CAIMSparseColumns(Data, Index, ClassValueList.size(), Sparse);
+			Run.extractionNanos=System.nanoTime()-Gathering;
+		}
+		else if (m_FoldHistograms==null && m_Workers.length()==0)
+			m_Columns=new CAIMColumnStore(Data);
+
+		double[] Costs=new double[Columns.length];
+		long[] Footprints=new long[Columns.length];
+		m_Footprints=m_MemoryBudget>0 ? new long[Data.numAttributes()] : null;
+		synchronized (m_SpilledAttributes) { m_SpilledAttributes.clear(); }
+		// Bytes held through the whole run besides the jobs: the gathered sparse columns, and the interval codes kept for the conversion
+		long Reserved=0;
+		for (int k=0;k<Columns.length;k++)
+		{
+			double Distinct;
+			// Fold histograms are merged and sparse columns sorted in place, without copying rows
+			if (m_FoldHistograms!=null)
+			{
+				Distinct=m_FoldHistograms.numberValues(Columns[k]);
+				Footprints[k]=Footprint(0, Distinct, ClassValueList.size());
+			}
+			else if (m_SparseColumns!=null)
+			{
+				Distinct=m_SparseColumns.numberStored(Columns[k])+1;
+				Footprints[k]=Footprint(0, Distinct, ClassValueList.size());
+				Reserved+=12L*m_SparseColumns.numberStored(Columns[k]);
+			}
+			else
+			{
+				Distinct=CAIMScheduler.estimateDistinct(Data, Columns[k]);
+				// Sized on the high estimate, so that a column of mostly distinct values is not admitted beside too many others
+				double High=m_MemoryBudget>0 ? CAIMScheduler.estimateDistinctHigh(Data, Columns[k]) : Distinct;
+				Footprints[k]=ChunkedFootprint(Data.numInstances(), High, ClassValueList.size(), Shards(Data));
+				if (m_Columns!=null) Reserved+=Data.numInstances();
+			}
+			Costs[k]=Distinct*ClassValueList.size();
+			if (m_Footprints!=null) m_Footprints[Columns[k]]=Footprints[k];
+		}
+		m_JobMemory=m_MemoryBudget*1048576L;
+		if (m_MemoryBudget>0)
+		{
+			// Interval codes that would take more than half the budget are not kept, and the conversion reads the values instead
+			if (m_Columns!=null && Reserved>m_JobMemory/2) { m_Columns=null; Reserved=0; }
+			m_JobMemory=Math.max(1024, m_JobMemory-Reserved);
+		}
+
+		CAIMScheduler Scheduler=null;
+		ArrayList<ArrayList<Double>> Schemes;
 		try
 		{
-			if (!threadExecutor.awaitTermination(30, TimeUnit.DAYS))
-				System.out.println("Threadpool timeout occurred");
+			if (m_Workers.length()>0)
+				Schemes=Coordinate(Data, Columns, Costs, Run);
+			else
+			{
+				Scheduler=Scheduler(m_JobMemory);
+				Schemes=Scheduler.run(Columns, Costs, Footprints, attribute -> Evaluate(Data, attribute));
+			}
 		}
-		catch (InterruptedException ie)
+		finally
 		{
-			System.out.println("Threadpool prematurely terminated due to interruption in thread that created pool");
+			m_SparseColumns=null;
+			m_Footprints=null;
 		}
+		for (int k=0;k<Columns.length;k++)
+			SchemeList.set(Columns[k], Schemes.get(k));
 
 		if (getInputFormat() == null) {throw new IllegalStateException("No input instance format defined");}
 		setOutputFormat();
-		for(int i = 0; i < getInputFormat().numInstances(); i++)
-			convertInstance(getInputFormat().instance(i));
-		return true;
+		long Converting=System.nanoTime();
+		convertInput();
+		m_Columns=null;
+		Run.conversionNanos=System.nanoTime()-Converting;
+		FinishRun(Run, Scheduler, Start);
+		return BatchDone();
+	}
+	//---------------------------------------------------------------------------
+	// Ends a batch as Filter does, releasing the buffered input, so that later instances are converted as they arrive
+	protected boolean BatchDone() throws Exception
+	{
+		return super.batchFinished();
+	}
+	//---------------------------------------------------------------------------
+	// Scheme of one attribute of the buffered input, run by the scheduler
+	protected ArrayList<Double> Evaluate(Instances Data, int attribute)
+	{
+		CAIMAttributeMetrics Metrics=new CAIMAttributeMetrics(attribute, Data.attribute(attribute).name());
+		long Start=System.nanoTime();
+		CAIMHistogram Histogram;
+		boolean Spilled=false;
+		if (m_FoldHistograms!=null)
+		{
+			Histogram=m_FoldHistograms.histogram(attribute, m_RowWeights, m_ReweightedRows);
+			Metrics.sortNanos=System.nanoTime()-Start;
+		}
+		else if (m_SparseColumns!=null)
+		{
+			Histogram=m_SparseColumns.histogram(attribute);
+			Metrics.sortNanos=System.nanoTime()-Start;
+		}
+		else if (m_Footprints!=null && m_Footprints[attribute]>m_JobMemory)
+		{
+			// Larger than the budget left to the jobs: sorted in chunks spilled to a mapped file, and left unencoded
+			Histogram=CAIMHistogramSpill.build(Data, attribute, Index, ClassValueList.size(), SpillRows(ClassValueList.size()));
+			Metrics.sortNanos=System.nanoTime()-Start;
+			synchronized (m_SpilledAttributes) { m_SpilledAttributes.add(attribute); }
+			Spilled=true;
+		}
+		else
+		{
+			// Sorted and counted in chunks, several in parallel for a tall attribute of few
+			Histogram=CAIMHistogram.buildChunked(Data, attribute, Index, ClassValueList.size(), Shards(Data), SHARD_ROWS);
+			Metrics.sortNanos=System.nanoTime()-Start;
+		}
+		if (m_Histograms!=null) m_Histograms[attribute]=Histogram.trimmed();
+		long Sorted=System.nanoTime();
+		ArrayList<Double> Scheme=Discretize(Histogram, attribute, Metrics);
+		Metrics.searchNanos=System.nanoTime()-Sorted;
+		// Under a memory budget, only byte codes were reserved
+		if (m_Columns!=null && !Spilled && (m_MemoryBudget==0 || Scheme.size()-1<0xFF))
+		{
+			// The interval of each row, kept for the batch conversion
+			long Encoding=System.nanoTime();
+			m_Columns.encodeIntervals(attribute, Cuts(Scheme), Shards(Data));
+			Metrics.extractionNanos=System.nanoTime()-Encoding;
+		}
+		AttributeDiscretized(Metrics, Scheme);
+		return Scheme;
+	}
+	//---------------------------------------------------------------------------
+	// Chunks of an attribute sorted or encoded at once: with few attributes, several for a tall one
+	protected int Shards(Instances Data)
+	{
+		return m_ParallelSearch ? Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism(), Data.numInstances()/SHARD_ROWS)) : 1;
+	}
+	//---------------------------------------------------------------------------
+	protected static double[] Cuts(List<Double> Scheme)
+	{
+		double[] Cuts=new double[Scheme.size()];
+		for (int i=0;i<Cuts.length;i++) Cuts[i]=Scheme.get(i);
+		return Cuts;
+	}
+	//---------------------------------------------------------------------------
+	// Bytes an attribute job holds at its peak: its extracted and sorted rows, then its histogram, cumulative counts and candidates
+	protected static long Footprint(long Rows, double Distinct, int Classes)
+	{
+		return 12*Rows+(long)(Distinct*(8L*Classes+48));
+	}
+	//---------------------------------------------------------------------------
+	// Bytes a dense attribute job holds at its peak: the rows of the chunks it sorts at once, the chunk histograms and their merge, then the search
+	protected static long ChunkedFootprint(long Rows, double Distinct, int Classes, int Shards)
+	{
+		double ChunkValues=Math.min(Rows, Math.ceil((double)Rows/SHARD_ROWS)*Distinct);
+		return 12*Math.min(Rows, (long)Shards*SHARD_ROWS)+(long)(ChunkValues*(8+4L*Classes))+Footprint(0, Distinct, Classes);
+	}
+	//---------------------------------------------------------------------------
+	// Rows per spilled chunk, so a chunk and its run take about half the memory left to the jobs
+	protected int SpillRows(int Classes)
+	{
+		return (int)Math.max(SHARD_ROWS, Math.min(Integer.MAX_VALUE, m_JobMemory/2/(20+4L*Classes)));
+	}
+	//---------------------------------------------------------------------------
+	/**
+	 * Retrains on a new batch with the input's header, without the earlier instances, which
+	 * needs keepHistograms set for the batches so far. The histogram of each discretized
+	 * attribute is merged with the batch's. Unless its class distribution moved by less than
+	 * the update threshold, the search resumes from the previous cut points. The output format
+	 * is then rebuilt with the new schemes.
+	 */
+	public void update(Instances Batch) throws Exception
+	{
+		ClearCancelled();
+		if (m_Histograms==null) throw new IllegalStateException("No histograms kept to update, set keepHistograms before batchFinished");
+		if (!Batch.equalHeaders(getInputFormat())) throw new IllegalArgumentException(Batch.equalHeadersMsg(getInputFormat()));
+		long Start=System.nanoTime();
+		ArrayList<Integer> Attributes=new ArrayList<Integer>();
+		for (int current=0;current<m_Histograms.length;current++)
+			if (m_Histograms[current]!=null) Attributes.add(current);
+		int[] Columns=new int[Attributes.size()];
+		double[] Costs=new double[Columns.length];
+		for (int k=0;k<Columns.length;k++)
+		{
+			Columns[k]=Attributes.get(k);
+			Costs[k]=(double)m_Histograms[Columns[k]].numberValues*ClassValueList.size();
+		}
+		synchronized (m_UpdatedAttributes) { m_UpdatedAttributes.clear(); }
+		// Attributes that keep their scheme keep its truncated status
+		int[] Truncated=getTruncatedAttributes();
+
+		CAIMRunMetrics Run=StartRun(Batch, Columns.length);
+		long[] Footprints=new long[Columns.length];
+		for (int k=0;k<Columns.length;k++)
+			Footprints[k]=Footprint(Batch.numInstances(), m_Histograms[Columns[k]].numberValues+CAIMScheduler.estimateDistinct(Batch, Columns[k]), ClassValueList.size());
+		CAIMScheduler Scheduler=Scheduler(m_MemoryBudget*1048576L);
+		ArrayList<ArrayList<Double>> Schemes=Scheduler.run(Columns, Costs, Footprints, attribute -> Update(Batch, attribute, Truncated));
+		for (int k=0;k<Columns.length;k++)
+			SchemeList.set(Columns[k], Schemes.get(k));
+		setOutputFormat();
+		FinishRun(Run, Scheduler, Start);
+	}
+	//---------------------------------------------------------------------------
+	// Updated scheme of one attribute, run by the scheduler, given the attributes truncated before the update
+	protected ArrayList<Double> Update(Instances Batch, int attribute, int[] Truncated)
+	{
+		CAIMAttributeMetrics Metrics=new CAIMAttributeMetrics(attribute, Batch.attribute(attribute).name());
+		long Start=System.nanoTime();
+		CAIMHistogram Previous=m_Histograms[attribute];
+		CAIMHistogram Merged=CAIMHistogram.merge(Previous, CAIMHistogram.build(Batch, attribute, Index, ClassValueList.size()));
+		m_Histograms[attribute]=Merged;
+		long Sorted=System.nanoTime();
+		Metrics.sortNanos=Sorted-Start;
+		ArrayList<Double> Scheme=SchemeList.get(attribute);
+		if (CAIMHistogram.distance(Previous, Merged)>=m_UpdateThreshold)
+		{
+			Scheme=CAIM(Merged, m_BoundaryCandidates, Metrics, Scheme);
+			synchronized (m_UpdatedAttributes) { m_UpdatedAttributes.add(attribute); }
+		}
+		else
+			Metrics.truncated=Arrays.binarySearch(Truncated, attribute)>=0;
+		Metrics.searchNanos=System.nanoTime()-Sorted;
+		AttributeDiscretized(Metrics, Scheme);
+		return Scheme;
+	}
+	//---------------------------------------------------------------------------
+	/**
+	 * Indices of the attributes searched again by the last update. The others kept their scheme.
+	 */
+	public int[] getUpdatedAttributes()
+	{
+		synchronized (m_UpdatedAttributes) { return m_UpdatedAttributes.stream().mapToInt(Integer::intValue).sorted().toArray(); }
+	}
+	//---------------------------------------------------------------------------
+	// Schemes of the attributes discretized on the worker processes
+	protected ArrayList<ArrayList<Double>> Coordinate(Instances Data, int[] Columns, double[] Costs, CAIMRunMetrics Run) throws Exception
+	{
+		long Start=System.nanoTime();
+		CAIMCoordinator Coordinator=new CAIMCoordinator(Arrays.asList(m_Workers.split(",")));
+		ArrayList<ArrayList<Double>> Schemes=Coordinator.run(Data, Index, ClassValueList.size(), Columns, Costs, this);
+		Run.schedulingNanos=System.nanoTime()-Start;
+		m_WorkerFailures=Coordinator.failures();
+		Run.workerFailures=Coordinator.failures();
+		Run.workerTimeouts=Coordinator.timeouts();
+		Run.rescheduledShards=Coordinator.rescheduled();
+		for (int k=0;k<Columns.length;k++)
+		{
+			CAIMAttributeMetrics Metrics=new CAIMAttributeMetrics(Columns[k], Data.attribute(Columns[k]).name());
+			Metrics.truncated=Coordinator.truncated(Columns[k]);
+			Metrics.pruningMismatch=Coordinator.pruningMismatch(Columns[k]);
+			if (Metrics.pruningMismatch) synchronized (m_PruningMismatches) { m_PruningMismatches.add(Columns[k]); }
+			AttributeDiscretized(Metrics, Schemes.get(k));
+		}
+		return Schemes;
+	}
+	//---------------------------------------------------------------------------
+	// Tells the metrics listener that a worker failed and its shard was rescheduled, from a coordinator thread
+	protected void WorkerFailed(String Worker, boolean TimedOut, Exception Cause)
+	{
+		if (m_MetricsListener!=null) m_MetricsListener.workerFailed(Worker, TimedOut, Cause);
+	}
+	//---------------------------------------------------------------------------
+	// Records the measurements of one attribute and tells the listeners
+	protected void AttributeDiscretized(CAIMAttributeMetrics Metrics, ArrayList<Double> Scheme)
+	{
+		Metrics.intervals=Math.max(0, Scheme.size()-1);
+		m_AttributeMetrics[Metrics.attribute]=Metrics;
+		if (Metrics.truncated) synchronized (m_TruncatedAttributes) { m_TruncatedAttributes.add(Metrics.attribute); }
+		if (m_MetricsListener!=null) m_MetricsListener.attributeDiscretized(Metrics);
+		if (m_JMXMetrics) CAIMMetrics.registered().attributeDiscretized(Metrics);
+	}
+	//---------------------------------------------------------------------------
+	// Starts the measurements of a batch
+	protected CAIMRunMetrics StartRun(Instances Data, int Attributes)
+	{
+		m_AttributeMetrics=new CAIMAttributeMetrics[Data.numAttributes()];
+		m_RunMetrics=null;
+		m_RunBudgetEnd=m_RunTimeBudget>0 ? System.nanoTime()+m_RunTimeBudget*1000000L : 0;
+		synchronized (m_TruncatedAttributes) { m_TruncatedAttributes.clear(); }
+		return new CAIMRunMetrics(getClass().getSimpleName(), Data.numInstances(), Attributes);
+	}
+	//---------------------------------------------------------------------------
+	// Completes the measurements of a batch and tells the listeners
+	protected void FinishRun(CAIMRunMetrics Run, CAIMScheduler Scheduler, long Start)
+	{
+		if (Scheduler!=null) Scheduler.report(Run);
+		for (CAIMAttributeMetrics Metrics : m_AttributeMetrics)
+		{
+			if (Metrics==null) continue;
+			Run.extractionNanos+=Metrics.extractionNanos;
+			Run.sortNanos+=Metrics.sortNanos;
+			Run.searchNanos+=Metrics.searchNanos;
+		}
+		Run.totalNanos=System.nanoTime()-Start;
+		m_RunMetrics=Run;
+		if (m_MetricsListener!=null) m_MetricsListener.runFinished(Run);
+		if (m_JMXMetrics) CAIMMetrics.registered().runFinished(Run);
+	}
+	//---------------------------------------------------------------------------
+	// Scheduler for the per-attribute jobs of a new batch, whose footprints may take MemoryBytes together
+	protected CAIMScheduler Scheduler(long MemoryBytes)
+	{
+		CAIMScheduler Scheduler=new CAIMScheduler(m_Executor, m_ProgressListener, m_Deadline, m_Cancelled);
+		Scheduler.setMemoryBudget(MemoryBytes);
+		return Scheduler;
+	}
+	//---------------------------------------------------------------------------
+	// Rejects options that cannot be used together, rather than ignoring one of them
+	protected void CheckOptions()
+	{
+		if (m_Workers.length()>0 && m_StreamingBins>0)
+			throw new IllegalArgumentException("Streaming summaries are searched in this JVM, not on workers");
+		if (m_Workers.length()>0 && m_FoldHistograms!=null)
+			throw new IllegalStateException("Training rows are recounted from fold histograms in this JVM, not on workers");
+		if (m_KeepHistograms && m_StreamingBins>0)
+			throw new IllegalArgumentException("Streaming summaries are not exact histograms to update, and already take each instance as it arrives");
 	}
 	//---------------------------------------------------------------------------
+	// Clears an earlier cancel, once at the start of a batch or update, so that a cancel during its preparation stops it
+	protected void ClearCancelled()
+	{
+		if (m_Cancelled==null) m_Cancelled=new AtomicBoolean();
+		m_Cancelled.set(false);
+	}
+	//---------------------------------------------------------------------------
+	protected boolean streamingBatchFinished() throws Exception
+	{
+		if (getInputFormat() == null) {throw new IllegalStateException("No input instance format defined");}
+		if (isFirstBatchDone()) m_StreamingUnconverted=false;
+		else
+		{
+			long Start=System.nanoTime();
+			Instances Data=getInputFormat();
+			if (m_Summaries==null) startSummaries();
+			int Attributes=0;
+			for (CAIMStreamingHistogram Summary : m_Summaries) if (Summary!=null) Attributes++;
+			CAIMRunMetrics Run=StartRun(Data, Attributes);
+			SchemeList= new ArrayList<>(Data.numAttributes());
+			for (int current=0;current<Data.numAttributes();current++)
+				SchemeList.add(new ArrayList<Double>());
+			for (int current=0;current<Data.numAttributes();current++)
+				if (m_Summaries[current]!=null)
+				{
+					CAIMAttributeMetrics Metrics=new CAIMAttributeMetrics(current, Data.attribute(current).name());
+					long Searching=System.nanoTime();
+					SchemeList.set(current, Discretize(m_Summaries[current].toHistogram(), current, Metrics));
+					Metrics.searchNanos=System.nanoTime()-Searching;
+					AttributeDiscretized(Metrics, SchemeList.get(current));
+				}
+			m_Summaries=null;
+			setOutputFormat();
+			FinishRun(Run, null, Start);
+		}
+		return BatchDone();
+	}
+	//---------------------------------------------------------------------------
+	protected void startSummaries()
+	{
+		Instances Data=getInputFormat();
+		Attribute ClassAttribute=Data.attribute(Data.numAttributes()-1);
+		Index=ClassAttribute.index();
+		Enumeration<Object> enu=ClassAttribute.enumerateValues();
+		ClassValueList= new ArrayList<String>();
+		while(enu.hasMoreElements())ClassValueList.add((String)enu.nextElement());
+
+		m_PruningMismatches.clear();
+		m_Summaries=new CAIMStreamingHistogram[Data.numAttributes()];
+		for (int current=0;current<Data.numAttributes();current++)
+		{
+			if (current==Index) { continue;}
+			if (!Data.attribute(current).isNumeric()){ continue;}
+			if (!m_DiscretizeCols.isInRange(current)) { continue;}
+
+			m_Summaries[current]=new CAIMStreamingHistogram(m_StreamingBins, ClassValueList.size());
+		}
+	}
+	//---------------------------------------------------------------------------
+	/**
+	 * Writes the learned cut points to a CAIMSchemeFile, to be applied by CAIMApply
+	 * without training again.
+	 */
+	public void saveScheme(File file) throws IOException
+	{
+		if (SchemeList == null) {throw new IllegalStateException("No scheme learned yet");}
+		Instances Data=getInputFormat();
+		boolean[] Discretized=new boolean[Data.numAttributes()];
+		for (int current=0;current<Data.numAttributes();current++)
+			Discretized[current]=Data.attribute(current).isNumeric() && m_DiscretizeCols.isInRange(current) && current!=Index;
+		CAIMSchemeFile.write(file, Data, SchemeList, Discretized, m_OutputInNumeric);
+	}
+	//---------------------------------------------------------------------------
+	/**
+	 * Makes the next batchFinished derive each attribute's histogram from histograms of the
+	 * full data set instead of sorting the input. The input must hold row i of the full
+	 * data set weights[i] times, as CAIMFoldHistograms.trainCV and resample describe.
+	 * Pass null to sort the input again.
+	 */
+	public void setTrainingRows(CAIMFoldHistograms histograms, int[] weights)
+	{
+		m_FoldHistograms=histograms;
+		m_RowWeights=weights;
+		m_ReweightedRows=weights!=null ? CAIMFoldHistograms.reweighted(weights) : null;
+	}
+	//---------------------------------------------------------------------------
+	/**
+	 * Runs the per-attribute jobs of batchFinished on the given executor instead of the
+	 * shared work-stealing pool. The executor is not shut down.
+	 */
+	public void setExecutor(ExecutorService executor){m_Executor=executor;}
+	//---------------------------------------------------------------------------
+	public void setProgressListener(CAIMProgressListener listener){m_ProgressListener=listener;}
+	//---------------------------------------------------------------------------
+	/**
+	 * Makes batchFinished throw TimeoutException if its attributes are not all discretized
+	 * by the given System.currentTimeMillis() time. 0 removes the deadline.
+	 */
+	public void setDeadline(long deadline){m_Deadline=deadline;}
+	//---------------------------------------------------------------------------
+	public long getDeadline(){return m_Deadline;}
+	//---------------------------------------------------------------------------
+	/**
+	 * Stops the batchFinished in progress, from another thread. It throws CancellationException.
+	 */
+	public void cancel()
+	{
+		if (m_Cancelled!=null) m_Cancelled.set(true);
+	}
+	//---------------------------------------------------------------------------
+	public void setMetricsListener(CAIMMetricsListener listener){m_MetricsListener=listener;}
+	//---------------------------------------------------------------------------
+	/**
+	 * Measurements of the attributes discretized in the last batch, indexed by attribute.
+	 */
+	public CAIMAttributeMetrics[] getAttributeMetrics(){return m_AttributeMetrics;}
+	//---------------------------------------------------------------------------
+	public CAIMRunMetrics getRunMetrics(){return m_RunMetrics;}
+	//---------------------------------------------------------------------------
+	public String JMXMetricsTipText(){ return "Publish run and attribute metrics through the CAIMMetrics MXBean";}
+	//---------------------------------------------------------------------------
+	public boolean getJMXMetrics(){return m_JMXMetrics;}
+	//---------------------------------------------------------------------------
+	public void setJMXMetrics(boolean val){m_JMXMetrics=val;}
+	//---------------------------------------------------------------------------
 	public String globalInfo() {return "An instance filter that discretizes a range of numeric";}
 	//---------------------------------------------------------------------------
 	public String outputInNumericTipText(){ return "true:output in 1,2,3, false:output in [a,b),[c,d), format";}
@@ -368,6 +1023,104 @@ public class CAIMCPU extends Filter implements SupervisedFilter, OptionHandler
 	//---------------------------------------------------------------------------
 	public void setOutputInNumeric(boolean val){m_OutputInNumeric=val;}
 	//---------------------------------------------------------------------------
+	public String intervalCacheTipText(){ return "Cache the best split of each interval, so each iteration only rescans the interval that was split";}
+	//---------------------------------------------------------------------------
+	public boolean getIntervalCache(){return m_IntervalCache;}
+	//---------------------------------------------------------------------------
+	public void setIntervalCache(boolean val){m_IntervalCache=val;}
+	//---------------------------------------------------------------------------
+	public String boundaryCandidatesTipText(){ return "Only consider midpoints where the class distribution changes between neighbouring values";}
+	//---------------------------------------------------------------------------
+	public boolean getBoundaryCandidates(){return m_BoundaryCandidates;}
+	//---------------------------------------------------------------------------
+	public void setBoundaryCandidates(boolean val){m_BoundaryCandidates=val;}
+	//---------------------------------------------------------------------------
+	public String validatePruningTipText(){ return "With boundary candidates, also run the exhaustive search and report the attributes whose scheme differs";}
+	//---------------------------------------------------------------------------
+	public boolean getValidatePruning(){return m_ValidatePruning;}
+	//---------------------------------------------------------------------------
+	public void setValidatePruning(boolean val){m_ValidatePruning=val;}
+	//---------------------------------------------------------------------------
+	/**
+	 * Indices of the attributes whose pruned scheme differed from the exhaustive one
+	 * in the last batch, when validating pruning.
+	 */
+	public int[] getPruningMismatches()
+	{
+		synchronized (m_PruningMismatches) { return m_PruningMismatches.stream().mapToInt(Integer::intValue).sorted().toArray(); }
+	}
+	//---------------------------------------------------------------------------
+	public String streamingBinsTipText(){ return "If positive, summarize instances as they arrive in at most this many bins per attribute instead of buffering them. Schemes are exact while an attribute has no more distinct values than bins. The training batch is not output, so Filter.useFilter and FilteredClassifier fail: input the instances again after batchFinished to convert them";}
+	//---------------------------------------------------------------------------
+	public int getStreamingBins(){return m_StreamingBins;}
+	//---------------------------------------------------------------------------
+	public void setStreamingBins(int val){m_StreamingBins=val;}
+	//---------------------------------------------------------------------------
+	public String workersTipText(){ return "Comma-separated CAIMWorker addresses, host:port or local to start a worker process, that discretize the attributes instead of this JVM";}
+	//---------------------------------------------------------------------------
+	public String getWorkers(){return m_Workers;}
+	//---------------------------------------------------------------------------
+	public void setWorkers(String val){m_Workers=val;}
+	//---------------------------------------------------------------------------
+	/**
+	 * Workers that failed in the last batch. Their shards were rescheduled on the others.
+	 */
+	public int getWorkerFailures(){return m_WorkerFailures;}
+	//---------------------------------------------------------------------------
+	public String keepHistogramsTipText(){ return "Keep each attribute's histogram after a batch, so later batches can be merged in by update";}
+	//---------------------------------------------------------------------------
+	public boolean getKeepHistograms(){return m_KeepHistograms;}
+	//---------------------------------------------------------------------------
+	public void setKeepHistograms(boolean val){m_KeepHistograms=val;}
+	//---------------------------------------------------------------------------
+	public String updateThresholdTipText(){ return "In update, attributes whose class distribution moved by less than this total variation distance keep their scheme";}
+	//---------------------------------------------------------------------------
+	public double getUpdateThreshold(){return m_UpdateThreshold;}
+	//---------------------------------------------------------------------------
+	public void setUpdateThreshold(double val){m_UpdateThreshold=val;}
+	//---------------------------------------------------------------------------
+	public String attributeTimeBudgetTipText(){ return "Milliseconds the search of one attribute may take, after which it keeps its best scheme so far and is marked truncated, 0 for no limit";}
+	//---------------------------------------------------------------------------
+	public long getAttributeTimeBudget(){return m_AttributeTimeBudget;}
+	//---------------------------------------------------------------------------
+	public void setAttributeTimeBudget(long val){m_AttributeTimeBudget=val;}
+	//---------------------------------------------------------------------------
+	public String runTimeBudgetTipText(){ return "Milliseconds from the start of a batch after which the searches keep their best schemes so far and are marked truncated, 0 for no limit";}
+	//---------------------------------------------------------------------------
+	public long getRunTimeBudget(){return m_RunTimeBudget;}
+	//---------------------------------------------------------------------------
+	public void setRunTimeBudget(long val){m_RunTimeBudget=val;}
+	//---------------------------------------------------------------------------
+	public String maxIntervalsTipText(){ return "Number of intervals at which the search of an attribute stops and is marked truncated, 0 for no limit";}
+	//---------------------------------------------------------------------------
+	public int getMaxIntervals(){return m_MaxIntervals;}
+	//---------------------------------------------------------------------------
+	public void setMaxIntervals(int val){m_MaxIntervals=val;}
+	//---------------------------------------------------------------------------
+	/**
+	 * Indices of the attributes whose search stopped on a time budget or the interval cap
+	 * in the last batch or update, with the best scheme found until then.
+	 */
+	public int[] getTruncatedAttributes()
+	{
+		synchronized (m_TruncatedAttributes) { return m_TruncatedAttributes.stream().mapToInt(Integer::intValue).sorted().toArray(); }
+	}
+	//---------------------------------------------------------------------------
+	public String memoryBudgetTipText(){ return "Megabytes the attribute jobs running at once may take by their estimated footprint; larger jobs run alone and sort in chunks spilled to a memory-mapped file. 0 for no limit";}
+	//---------------------------------------------------------------------------
+	public long getMemoryBudget(){return m_MemoryBudget;}
+	//---------------------------------------------------------------------------
+	public void setMemoryBudget(long val){m_MemoryBudget=val;}
+	//---------------------------------------------------------------------------
+	/**
+	 * Indices of the attributes whose histogram was built from chunks spilled to disk in the
+	 * last batch, as their footprint exceeded the memory budget.
+	 */
+	public int[] getSpilledAttributes()
+	{
+		synchronized (m_SpilledAttributes) { return m_SpilledAttributes.stream().mapToInt(Integer::intValue).sorted().toArray(); }
+	}
+	//---------------------------------------------------------------------------
 	public String classNameTipText(){ return "Input column's name contain class";}
 	//---------------------------------------------------------------------------
 	public String getClassName(){return m_ClassName;}
@@ -398,11 +1151,41 @@ public class CAIMCPU extends Filter implements SupervisedFilter, OptionHandler
 						"R", 1, "-R <col1,col2-col4,...>"));
 		newVector.addElement(new Option("\tOutput in numeric format.","O", 1, "-O"));
 		newVector.addElement(new Option("\tClass column's name.","C", 0, "-C"));
+		newVector.addElement(new Option("\tCache the best split of each interval.","L", 0, "-L"));
+		newVector.addElement(new Option("\tOnly consider midpoints where the class distribution changes.","P", 0, "-P"));
+		newVector.addElement(new Option("\tWith -P, report attributes where the exhaustive search differs.","V", 0, "-V"));
+		newVector.addElement(new Option("\tPublish metrics through JMX.","J", 0, "-J"));
+		newVector.addElement(new Option("\tSummarize instances in at most this many bins per attribute.\n\t(default 0, buffer all instances)","S", 1, "-S <number of bins>"));
+		newVector.addElement(new Option("\tDiscretize on these CAIMWorkers, host:port or local.\n\t(default none, this JVM)","W", 1, "-W <worker,worker,...>"));
+		newVector.addElement(new Option("\tKeep histograms for incremental updates.","I", 0, "-I"));
+		newVector.addElement(new Option("\tDistribution change below which update keeps a scheme.\n\t(default 0.01)","U", 1, "-U <distance>"));
+		newVector.addElement(new Option("\tMilliseconds the search of one attribute may take.\n\t(default 0, no limit)","T", 1, "-T <milliseconds>"));
+		newVector.addElement(new Option("\tMilliseconds the searches of a batch may take.\n\t(default 0, no limit)","B", 1, "-B <milliseconds>"));
+		newVector.addElement(new Option("\tMost intervals per attribute.\n\t(default 0, no limit)","M", 1, "-M <number of intervals>"));
+		newVector.addElement(new Option("\tMegabytes of estimated memory the running attribute jobs may take.\n\t(default 0, no limit)","X", 1, "-X <megabytes>"));
 		return newVector.elements();
 	}
 	//---------------------------------------------------------------------------
 	public void setOptions(String[] options) throws Exception {
 		setOutputInNumeric(Utils.getFlag('O', options));
+		setIntervalCache(Utils.getFlag('L', options));
+		setBoundaryCandidates(Utils.getFlag('P', options));
+		setValidatePruning(Utils.getFlag('V', options));
+		setJMXMetrics(Utils.getFlag('J', options));
+		String StreamingBins=Utils.getOption('S', options);
+		setStreamingBins(StreamingBins.length()!=0 ? Integer.parseInt(StreamingBins) : 0);
+		setWorkers(Utils.getOption('W', options));
+		setKeepHistograms(Utils.getFlag('I', options));
+		String UpdateThreshold=Utils.getOption('U', options);
+		setUpdateThreshold(UpdateThreshold.length()!=0 ? Double.parseDouble(UpdateThreshold) : 0.01);
+		String AttributeTimeBudget=Utils.getOption('T', options);
+		setAttributeTimeBudget(AttributeTimeBudget.length()!=0 ? Long.parseLong(AttributeTimeBudget) : 0);
+		String RunTimeBudget=Utils.getOption('B', options);
+		setRunTimeBudget(RunTimeBudget.length()!=0 ? Long.parseLong(RunTimeBudget) : 0);
+		String MaxIntervals=Utils.getOption('M', options);
+		setMaxIntervals(MaxIntervals.length()!=0 ? Integer.parseInt(MaxIntervals) : 0);
+		String MemoryBudget=Utils.getOption('X', options);
+		setMemoryBudget(MemoryBudget.length()!=0 ? Long.parseLong(MemoryBudget) : 0);
 		String convertList = Utils.getOption('R', options);
 		if (convertList.length() != 0)
 			setAttributeIndices(convertList);
@@ -410,15 +1193,28 @@ public class CAIMCPU extends Filter implements SupervisedFilter, OptionHandler
 			setAttributeIndices("first-last");
 		String ClassName=Utils.getOption('C', options);
 		m_ClassName=ClassName;
+		CheckOptions();
 		if (getInputFormat() != null) setInputFormat(getInputFormat());
 	}
 	//---------------------------------------------------------------------------
 	public String [] getOptions() {
 
-		String [] options = new String [20];
+		String [] options = new String [33];
 		int current = 0;
 		options[current++] = "-O"; options[current++] = "" + m_OutputInNumeric;
 		options[current++] = "-C"; options[current++] = "" + m_ClassName;
+		if (m_IntervalCache) options[current++] = "-L";
+		if (m_BoundaryCandidates) options[current++] = "-P";
+		if (m_ValidatePruning) options[current++] = "-V";
+		if (m_JMXMetrics) options[current++] = "-J";
+		if (m_StreamingBins>0) { options[current++] = "-S"; options[current++] = "" + m_StreamingBins; }
+		if (m_Workers.length()>0) { options[current++] = "-W"; options[current++] = m_Workers; }
+		if (m_KeepHistograms) options[current++] = "-I";
+		options[current++] = "-U"; options[current++] = "" + m_UpdateThreshold;
+		if (m_AttributeTimeBudget>0) { options[current++] = "-T"; options[current++] = "" + m_AttributeTimeBudget; }
+		if (m_RunTimeBudget>0) { options[current++] = "-B"; options[current++] = "" + m_RunTimeBudget; }
+		if (m_MaxIntervals>0) { options[current++] = "-M"; options[current++] = "" + m_MaxIntervals; }
+		if (m_MemoryBudget>0) { options[current++] = "-X"; options[current++] = "" + m_MemoryBudget; }
 		if (!getAttributeIndices().equals(""))
 			options[current++] = "-R"; options[current++] = getAttributeIndices();
 			while (current < options.length)  options[current++] = "";
@@ -437,34 +1233,64 @@ public class CAIMCPU extends Filter implements SupervisedFilter, OptionHandler
 	public boolean setInputFormat(Instances instanceInfo) throws Exception {
 		super.setInputFormat(instanceInfo);
 		m_DiscretizeCols.setUpper(instanceInfo.numAttributes() - 1);
+		m_Summaries=null;
 		return false;
 	}
 	//---------------------------------------------------------------------------
 	public boolean input(Instance instance) {
 		if (getInputFormat() == null) {throw new IllegalStateException("No input instance format defined");  }
+		if (m_StreamingBins>0) return streamingInput(instance);
+		if (m_NewBatch) { resetQueue(); m_NewBatch=false; }
+		// Once trained, each instance is converted with the learned scheme and output at once
+		if (isFirstBatchDone())
+		{
+			convertInstance(instance);
+			return true;
+		}
 		bufferInput(instance);
 		return false;
 	}
 	//---------------------------------------------------------------------------
-
-	/////////////////////////////////////////////////////////////////
-	// -------------------------------------------- Evaluation Thread
-	/////////////////////////////////////////////////////////////////
-
-	private class evaluationThread extends Thread
-	{
-		private int attribute;
-		private Instances Data;
-
-		public evaluationThread(Instances Data, int attribute)
+	/**
+	 * As Filter.output, but in streaming mode, after a training batch that took instances,
+	 * throws IllegalStateException until the next batch starts, as they were summarized and
+	 * not kept. Filter.useFilter, and with it FilteredClassifier, would otherwise get no rows.
+	 */
+	public Instance output() {
+		CheckStreamingOutput();
+		return super.output();
+	}
+	//---------------------------------------------------------------------------
+	public Instance outputPeek() {
+		CheckStreamingOutput();
+		return super.outputPeek();
+	}
+	//---------------------------------------------------------------------------
+	protected void CheckStreamingOutput() {
+		if (m_StreamingBins>0 && m_StreamingUnconverted && isFirstBatchDone())
+			throw new IllegalStateException("In streaming mode the training batch is summarized, not output: input the instances again after batchFinished to convert them");
+	}
+	//---------------------------------------------------------------------------
+	protected boolean streamingInput(Instance instance) {
+		if (m_NewBatch) { resetQueue(); m_NewBatch=false; m_StreamingUnconverted=false; }
+		if (isFirstBatchDone())
 		{
-			this.Data = Data;
-			this.attribute = attribute;
+			convertInstance(instance);
+			return true;
 		}
-
-		public void run()
+		if (m_Summaries==null) startSummaries();
+		m_StreamingUnconverted=true;
+		double ClassValue=instance.value(Index);
+		if (Utils.isMissingValue(ClassValue)) return false;
+		for (int current=0;current<m_Summaries.length;current++)
 		{
-			SchemeList.set(attribute, new ArrayList<Double>(CAIM(Data,attribute,Index)));
+			double Value=instance.value(current);
+			if (m_Summaries[current]!=null && !Utils.isMissingValue(Value))
+				m_Summaries[current].add(Value, (int)ClassValue);
 		}
+		return false;
 	}
+	//---------------------------------------------------------------------------
+	public static void main(String[] argv) {runFilter(new CAIMCPU(), argv);}
+	//---------------------------------------------------------------------------
 }
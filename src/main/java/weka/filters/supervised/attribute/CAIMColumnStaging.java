@@ -0,0 +1,65 @@
+package weka.filters.supervised.attribute;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * The numeric columns to discretize and the class vector of a data set,
+ * staged once in direct native-order buffers. Native code reads them in place
+ * instead of calling back into Java to rebuild them for every attribute.
+ */
+class CAIMColumnStaging
+{
+	private final int numberInstances;
+	private final FloatBuffer[] columns;
+	private final IntBuffer classValues;
+
+	public CAIMColumnStaging(Instances data, int[] attributes)
+	{
+		numberInstances = data.numInstances();
+		columns = new FloatBuffer[data.numAttributes()];
+
+		for (int attribute : attributes)
+			columns[attribute] = allocate(numberInstances).asFloatBuffer();
+		classValues = allocate(numberInstances).asIntBuffer();
+
+		// One pass over the instances fills every column
+		for (int i = 0; i < numberInstances; i++)
+		{
+			Instance instance = data.instance(i);
+
+			for (int attribute : attributes)
+				columns[attribute].put(i, (float) instance.value(attribute));
+			classValues.put(i, (int) instance.classValue());
+		}
+	}
+
+	// A direct buffer is indexed by int, so a column of more than Integer.MAX_VALUE bytes cannot be staged
+	private static ByteBuffer allocate(int numberInstances)
+	{
+		long bytes = 4L * numberInstances;
+		if (bytes > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("A column of " + numberInstances + " instances needs " + bytes + " bytes, more than a direct buffer holds");
+		return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+	}
+
+	public int numberInstances()
+	{
+		return numberInstances;
+	}
+
+	public FloatBuffer column(int attribute)
+	{
+		return columns[attribute].duplicate();
+	}
+
+	public IntBuffer classValues()
+	{
+		return classValues.duplicate();
+	}
+}
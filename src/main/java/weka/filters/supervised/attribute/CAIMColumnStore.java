@@ -0,0 +1,243 @@
+package weka.filters.supervised.attribute;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Numeric attributes of a batch, each dictionary-encoded as the sorted
+ * distinct values of its histogram and one rank code per row, or, once its
+ * scheme is known, as the interval of each row. Codes are stored in the
+ * narrowest of byte, short or int that holds the number of codes, with the
+ * all-ones code marking a row that has none: its value is missing, or is
+ * taken only by rows with a missing class.
+ *
+ * CAIMFoldHistograms keeps rank codes to recount folds, and CAIMCoordinator
+ * sends them to the workers. The search of a CAIMCPU batch does not read this
+ * store: each histogram is sorted from the instances in chunks, as
+ * CAIMHistogram.buildChunked. The caller's instances stay referenced while
+ * the filter runs, so a rank-coded copy of every column would add to the
+ * peak heap rather than replace them. CAIMCPU keeps only interval codes,
+ * usually a byte per row, from the end of an attribute's search until the
+ * batch conversion, which releases each once written.
+ *
+ * Attributes are encoded separately, so that the jobs of a batch can encode
+ * them in parallel.
+ */
+class CAIMColumnStore
+{
+	// Fewest rows per parallel chunk when coding a column
+	private static final int CHUNK = 1 << 16;
+
+	private final Instances data;
+	private final int numberInstances;
+
+	// Per encoded attribute: sorted distinct values, null for interval codes, and codes in one of the three widths
+	private final double[][] values;
+	private final boolean[] intervals;
+	private final byte[][] byteCodes;
+	private final short[][] shortCodes;
+	private final int[][] intCodes;
+
+	/**
+	 * Store for the instances of data. No attribute is encoded yet.
+	 */
+	public CAIMColumnStore(Instances data)
+	{
+		this.data = data;
+		this.numberInstances = data.numInstances();
+
+		int numberAttributes = data.numAttributes();
+		values = new double[numberAttributes][];
+		intervals = new boolean[numberAttributes];
+		byteCodes = new byte[numberAttributes][];
+		shortCodes = new short[numberAttributes][];
+		intCodes = new int[numberAttributes][];
+	}
+
+	public int numInstances()
+	{
+		return numberInstances;
+	}
+
+	/**
+	 * Whether the codes of an attribute are the intervals of its rows.
+	 */
+	public boolean hasIntervals(int attribute)
+	{
+		return intervals[attribute];
+	}
+
+	/**
+	 * Distinct values of an encoded attribute.
+	 */
+	public int numberValues(int attribute)
+	{
+		return values[attribute].length;
+	}
+
+	/**
+	 * Sorted distinct values of an encoded attribute. Not to be modified.
+	 */
+	public double[] values(int attribute)
+	{
+		return values[attribute];
+	}
+
+	/**
+	 * Encodes an attribute as the ranks of its values among those of histogram, its histogram
+	 * over the rows with a known class, reading the rows in numberShards parallel chunks.
+	 */
+	public void encode(int attribute, CAIMHistogram histogram, int numberShards)
+	{
+		double[] distinct = histogram.numberValues == histogram.values.length ? histogram.values : Arrays.copyOf(histogram.values, histogram.numberValues);
+		allocate(attribute, distinct.length);
+
+		forChunks(numberShards, (from, to) -> {
+			for (int i = from; i < to; i++)
+			{
+				double value = data.instance(i).value(attribute);
+				int code = Utils.isMissingValue(value) ? -1 : Arrays.binarySearch(distinct, value);
+				if (code >= 0) set(attribute, i, code);
+			}
+		});
+
+		values[attribute] = distinct;
+		intervals[attribute] = false;
+	}
+
+	/**
+	 * Encodes an attribute as the interval of each row among cuts, as CAIMConverter.interval,
+	 * reading the rows in numberShards parallel chunks. A missing value gets the missing code.
+	 */
+	public void encodeIntervals(int attribute, double[] cuts, int numberShards)
+	{
+		allocate(attribute, Math.max(0, cuts.length - 1));
+
+		if (cuts.length > 0)
+			forChunks(numberShards, (from, to) -> {
+				for (int i = from; i < to; i++)
+				{
+					double value = data.instance(i).value(attribute);
+					if (!Utils.isMissingValue(value)) set(attribute, i, (int) CAIMConverter.interval(cuts, value));
+				}
+			});
+
+		values[attribute] = null;
+		intervals[attribute] = true;
+	}
+
+	/**
+	 * Drops the codes of an attribute.
+	 */
+	public void release(int attribute)
+	{
+		values[attribute] = null;
+		intervals[attribute] = false;
+		byteCodes[attribute] = null;
+		shortCodes[attribute] = null;
+		intCodes[attribute] = null;
+	}
+
+	private interface Chunk
+	{
+		void run(int from, int to);
+	}
+
+	// Runs chunk over the rows, in parallel chunks if numberShards is above one
+	private void forChunks(int numberShards, Chunk chunk)
+	{
+		int numberChunks = (numberInstances + CHUNK - 1) / CHUNK;
+		IntStream chunks = IntStream.range(0, numberChunks);
+		if (numberShards > 1 && numberChunks > 1) chunks = chunks.parallel();
+		chunks.forEach(c -> chunk.run(c * CHUNK, Math.min(numberInstances, (c + 1) * CHUNK)));
+	}
+
+	// Codes of the narrowest width for numberCodes codes, all set to the missing code, in place of the attribute's codes
+	private void allocate(int attribute, int numberCodes)
+	{
+		byteCodes[attribute] = null;
+		shortCodes[attribute] = null;
+		intCodes[attribute] = null;
+
+		// The all-ones code is kept for missing values
+		if (numberCodes < 0xFF) Arrays.fill(byteCodes[attribute] = new byte[numberInstances], (byte) -1);
+		else if (numberCodes < 0xFFFF) Arrays.fill(shortCodes[attribute] = new short[numberInstances], (short) -1);
+		else Arrays.fill(intCodes[attribute] = new int[numberInstances], -1);
+	}
+
+	private void set(int attribute, int row, int code)
+	{
+		if (byteCodes[attribute] != null) byteCodes[attribute][row] = (byte) code;
+		else if (shortCodes[attribute] != null) shortCodes[attribute][row] = (short) code;
+		else intCodes[attribute][row] = code;
+	}
+
+	/**
+	 * Code of a row of an encoded attribute, -1 when it has none.
+	 */
+	public int code(int attribute, int row)
+	{
+		if (byteCodes[attribute] != null)
+		{
+			int code = byteCodes[attribute][row] & 0xFF;
+			return code == 0xFF ? -1 : code;
+		}
+		if (shortCodes[attribute] != null)
+		{
+			int code = shortCodes[attribute][row] & 0xFFFF;
+			return code == 0xFFFF ? -1 : code;
+		}
+		return intCodes[attribute][row];
+	}
+
+	/**
+	 * Codes of rows from to to of an encoded attribute, written into target from index 0.
+	 */
+	public void codes(int attribute, int from, int to, int[] target)
+	{
+		byte[] bytes = byteCodes[attribute];
+		short[] shorts = shortCodes[attribute];
+
+		if (bytes != null)
+			for (int i = from; i < to; i++)
+			{
+				int code = bytes[i] & 0xFF;
+				target[i - from] = code == 0xFF ? -1 : code;
+			}
+		else if (shorts != null)
+			for (int i = from; i < to; i++)
+			{
+				int code = shorts[i] & 0xFFFF;
+				target[i - from] = code == 0xFFFF ? -1 : code;
+			}
+		else
+			System.arraycopy(intCodes[attribute], from, target, 0, to - from);
+	}
+
+	/**
+	 * Histogram of the given counts of each distinct value, leaving out the values no row takes.
+	 * Modifies counts.
+	 */
+	static CAIMHistogram histogram(double[] distinct, int[] counts, int numberClasses)
+	{
+		double[] kept = new double[distinct.length];
+		int numberValues = 0;
+
+		for (int v = 0; v < distinct.length; v++)
+		{
+			int total = 0;
+			for (int c = 0; c < numberClasses; c++)
+				total += counts[v*numberClasses + c];
+			if (total == 0) continue;
+
+			if (numberValues != v)
+				System.arraycopy(counts, v*numberClasses, counts, numberValues*numberClasses, numberClasses);
+			kept[numberValues++] = distinct[v];
+		}
+
+		return new CAIMHistogram(kept, numberValues, numberClasses, counts);
+	}
+}
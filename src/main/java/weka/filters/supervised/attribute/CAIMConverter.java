@@ -0,0 +1,249 @@
+package weka.filters.supervised.attribute;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+import weka.core.Utils;
+
+/**
+ * Maps instances to the interval indices of a learned CAIM scheme. Cut points
+ * are kept as primitive arrays, or read in place from a mapped CAIMSchemeFile,
+ * and each value's interval is found by binary search. Batches are converted
+ * in parallel chunks.
+ *
+ * Sparse instances are converted from their stored values only. A value
+ * left out of a sparse instance is zero, so an attribute whose zero falls in
+ * a non-zero interval is the only one written for every instance.
+ */
+class CAIMConverter
+{
+	// Fewest instances per parallel chunk
+	private static final int CHUNK = 1024;
+
+	// Sorted cut points of each attribute, including both end points; null if copied unchanged
+	private final double[][] cuts;
+
+	// Mapped scheme whose cut points are searched in place of cuts, if read from a file
+	private final CAIMSchemeFile scheme;
+
+	// Output of a zero value per attribute, and the attributes where it is not zero
+	private final double[] zeros;
+	private final int[] nonZeroDefaults;
+
+	/**
+	 * schemes.get(a) holds the cut points of attribute a, used if discretized[a].
+	 */
+	public CAIMConverter(List<? extends List<Double>> schemes, boolean[] discretized)
+	{
+		cuts = new double[discretized.length][];
+		scheme = null;
+
+		for (int a = 0; a < discretized.length; a++)
+		{
+			if (!discretized[a]) continue;
+
+			List<Double> attributeScheme = schemes.get(a);
+			cuts[a] = new double[attributeScheme.size()];
+			for (int i = 0; i < cuts[a].length; i++)
+				cuts[a][i] = attributeScheme.get(i);
+		}
+
+		zeros = new double[cuts.length];
+		nonZeroDefaults = nonZeroDefaults();
+	}
+
+	/**
+	 * Converter searching the cut points of a scheme file where they are mapped, without copying them.
+	 */
+	public CAIMConverter(CAIMSchemeFile scheme)
+	{
+		cuts = new double[scheme.header().numAttributes()][];
+		this.scheme = scheme;
+
+		zeros = new double[cuts.length];
+		nonZeroDefaults = nonZeroDefaults();
+	}
+
+	// Fills zeros and lists the attributes where a zero value is not output as zero
+	private int[] nonZeroDefaults()
+	{
+		int numberDefaults = 0;
+		for (int a = 0; a < cuts.length; a++)
+		{
+			if (isDiscretized(a)) zeros[a] = interval(a, 0);
+			if (zeros[a] != 0) numberDefaults++;
+		}
+
+		int[] defaults = new int[numberDefaults];
+		for (int a = 0, k = 0; a < cuts.length; a++)
+			if (zeros[a] != 0) defaults[k++] = a;
+		return defaults;
+	}
+
+	private boolean isDiscretized(int attribute)
+	{
+		return scheme != null ? scheme.isDiscretized(attribute) : cuts[attribute] != null;
+	}
+
+	// Interval of a value of a discretized attribute
+	private double interval(int attribute, double value)
+	{
+		return scheme != null ? scheme.interval(attribute, value) : interval(cuts[attribute], value);
+	}
+
+	/**
+	 * Interval of a value: one less than the number of cut points below it, clamped to
+	 * the intervals, as the linear scan of CAIMCPU. Missing if there are no cut points.
+	 */
+	public static double interval(double[] cuts, double value)
+	{
+		if (cuts.length == 0) return Utils.missingValue();
+
+		int low = 0, high = cuts.length;
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (cuts[mid] < value) low = mid + 1; else high = mid;
+		}
+
+		return Math.max(0, Math.min(low - 1, cuts.length - 2));
+	}
+
+	/**
+	 * Output values of one instance, written into values.
+	 */
+	public void convert(Instance instance, double[] values)
+	{
+		for (int a = 0; a < cuts.length; a++)
+			values[a] = isDiscretized(a) ? interval(a, instance.value(a)) : instance.value(a);
+	}
+
+	/**
+	 * Output of one instance, sparse if the instance is. Not yet attached to a data set.
+	 */
+	public Instance convert(Instance instance)
+	{
+		if (instance instanceof SparseInstance) return convertSparse(instance);
+
+		double[] values = new double[cuts.length];
+		convert(instance, values);
+		return new DenseInstance(instance.weight(), values);
+	}
+
+	// Walks the stored values and the attributes with a non-zero default together, in attribute order
+	private Instance convertSparse(Instance instance)
+	{
+		int numberStored = instance.numValues();
+		double[] values = new double[numberStored + nonZeroDefaults.length];
+		int[] indices = new int[values.length];
+		int length = 0;
+
+		for (int p = 0, d = 0; p < numberStored || d < nonZeroDefaults.length; )
+		{
+			int stored = p < numberStored ? instance.index(p) : Integer.MAX_VALUE;
+			int fallback = d < nonZeroDefaults.length ? nonZeroDefaults[d] : Integer.MAX_VALUE;
+			int a = Math.min(stored, fallback);
+			double value;
+
+			if (a == stored)
+			{
+				value = isDiscretized(a) ? interval(a, instance.valueSparse(p)) : instance.valueSparse(p);
+				p++;
+				if (a == fallback) d++;
+			}
+			else
+			{
+				value = zeros[a];
+				d++;
+			}
+
+			if (value != 0)
+			{
+				values[length] = value;
+				indices[length] = a;
+				length++;
+			}
+		}
+
+		return new SparseInstance(instance.weight(), Arrays.copyOf(values, length), Arrays.copyOf(indices, length), cuts.length);
+	}
+
+	/**
+	 * Output of every instance.
+	 */
+	public Instance[] convert(Instances data)
+	{
+		int numberInstances = data.numInstances();
+		Instance[] converted = new Instance[numberInstances];
+		int numberChunks = (numberInstances + CHUNK - 1) / CHUNK;
+
+		IntStream chunks = IntStream.range(0, numberChunks);
+		if (numberChunks > 1) chunks = chunks.parallel();
+
+		chunks.forEach(chunk -> {
+			int to = Math.min(numberInstances, (chunk + 1) * CHUNK);
+			for (int i = chunk * CHUNK; i < to; i++)
+				converted[i] = convert(data.instance(i));
+		});
+
+		return converted;
+	}
+
+	/**
+	 * Output of every instance, reading the attributes whose intervals store holds, which
+	 * holds data, from their interval codes. Those are written column by column, each
+	 * released from store once written. Rows without a code are converted from their value.
+	 */
+	public Instance[] convert(Instances data, CAIMColumnStore store)
+	{
+		if (store == null) return convert(data);
+
+		int numberInstances = data.numInstances();
+		double[][] values = new double[numberInstances][];
+		int numberChunks = (numberInstances + CHUNK - 1) / CHUNK;
+
+		// The attributes without codes first, row by row
+		chunks(numberChunks).forEach(chunk -> {
+			int to = Math.min(numberInstances, (chunk + 1) * CHUNK);
+			for (int i = chunk * CHUNK; i < to; i++)
+			{
+				Instance instance = data.instance(i);
+				values[i] = new double[cuts.length];
+				for (int a = 0; a < cuts.length; a++)
+					if (!isDiscretized(a)) values[i][a] = instance.value(a);
+					else if (!store.hasIntervals(a)) values[i][a] = interval(a, instance.value(a));
+			}
+		});
+
+		for (int a = 0; a < cuts.length; a++)
+		{
+			if (!isDiscretized(a) || !store.hasIntervals(a)) continue;
+			int attribute = a;
+			chunks(numberChunks).forEach(chunk -> {
+				int from = chunk * CHUNK, to = Math.min(numberInstances, from + CHUNK);
+				int[] codes = new int[to - from];
+				store.codes(attribute, from, to, codes);
+				for (int i = from; i < to; i++)
+					values[i][attribute] = codes[i - from] >= 0 ? codes[i - from] : interval(attribute, data.instance(i).value(attribute));
+			});
+			store.release(attribute);
+		}
+
+		Instance[] converted = new Instance[numberInstances];
+		for (int i = 0; i < numberInstances; i++)
+			converted[i] = new DenseInstance(data.instance(i).weight(), values[i]);
+
+		return converted;
+	}
+
+	private static IntStream chunks(int numberChunks)
+	{
+		IntStream chunks = IntStream.range(0, numberChunks);
+		return numberChunks > 1 ? chunks.parallel() : chunks;
+	}
+}
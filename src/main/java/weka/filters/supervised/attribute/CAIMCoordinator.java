@@ -0,0 +1,401 @@
+package weka.filters.supervised.attribute;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Discretizes the attributes of a batch on CAIMWorker processes. The
+ * attributes are split into cost-balanced shards, several per worker, which
+ * the workers take from a shared queue. Each connection first carries the
+ * search options and the class vector, then the shards' attributes, each as
+ * its distinct values and a rank code per row. A shard whose worker fails,
+ * or stays silent for longer than the idle timeout, goes back to the queue
+ * for the remaining workers. Workers are given as host:port, or as "local"
+ * to start a worker process on this machine for the run.
+ */
+class CAIMCoordinator
+{
+	private static final int SHARDS_PER_WORKER = 4;
+	private static final int CONNECT_TIMEOUT = 10000;
+
+	// Milliseconds a worker may go without reading or answering, several heartbeats
+	static final int IDLE_TIMEOUT = 6 * CAIMWorker.HEARTBEAT_INTERVAL;
+
+	private final List<String> workers;
+
+	// Workers that failed during the last run, those that timed out, and the shards put back for the others
+	private final AtomicInteger failures = new AtomicInteger();
+	private final AtomicInteger timeouts = new AtomicInteger();
+	private final AtomicInteger rescheduled = new AtomicInteger();
+
+	// CAIMWorker flags of each attribute of the last run
+	private final ConcurrentHashMap<Integer, Integer> flags = new ConcurrentHashMap<Integer, Integer>();
+
+	// A worker connection, and the time its thread started waiting on it, 0 while not waiting
+	private static class Connection
+	{
+		final Socket socket = new Socket();
+		volatile long waiting;
+		volatile boolean timedOut;
+	}
+
+	public CAIMCoordinator(List<String> workers)
+	{
+		this.workers = workers;
+	}
+
+	public int failures()
+	{
+		return failures.get();
+	}
+
+	public int timeouts()
+	{
+		return timeouts.get();
+	}
+
+	public int rescheduled()
+	{
+		return rescheduled.get();
+	}
+
+	/**
+	 * Whether the search of an attribute of the last run stopped on a budget or the interval cap.
+	 */
+	public boolean truncated(int attribute)
+	{
+		return (flags.getOrDefault(attribute, 0) & CAIMWorker.TRUNCATED) != 0;
+	}
+
+	/**
+	 * Whether the pruned scheme of an attribute of the last run differed from the exhaustive one.
+	 */
+	public boolean pruningMismatch(int attribute)
+	{
+		return (flags.getOrDefault(attribute, 0) & CAIMWorker.PRUNING_MISMATCH) != 0;
+	}
+
+	/**
+	 * Cut points of each of columns, in their order, searched with the options of filter:
+	 * boundary candidates, interval cache, pruning validation, the time budgets and the
+	 * interval cap. The histograms sent are kept in the filter's m_Histograms when it keeps
+	 * them. Throws TimeoutException once the filter's deadline passes,
+	 * CancellationException once it is cancelled, and IOException if every worker failed.
+	 */
+	public ArrayList<ArrayList<Double>> run(Instances data, int classIndex, int numberClasses, int[] columns, double[] costs, CAIMCPU filter) throws Exception
+	{
+		ArrayList<Process> processes = new ArrayList<Process>();
+		Set<Connection> connections = ConcurrentHashMap.newKeySet();
+		AtomicBoolean stopped = new AtomicBoolean();
+		ExecutorService threads = null;
+		failures.set(0);
+		timeouts.set(0);
+		rescheduled.set(0);
+		flags.clear();
+
+		try
+		{
+			ArrayList<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+			for (String worker : workers)
+			{
+				if (worker.equals("local"))
+				{
+					Process process = startLocal();
+					processes.add(process);
+					addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), localPort(process)));
+				}
+				else
+				{
+					int colon = worker.lastIndexOf(':');
+					if (colon < 0) throw new IllegalArgumentException("Worker " + worker + " is not host:port or local");
+					addresses.add(new InetSocketAddress(worker.substring(0, colon), Integer.parseInt(worker.substring(colon + 1))));
+				}
+			}
+
+			int[] classes = new int[data.numInstances()];
+			for (int i = 0; i < classes.length; i++)
+			{
+				double classValue = data.instance(i).value(classIndex);
+				classes[i] = Utils.isMissingValue(classValue) ? -1 : (int) classValue;
+			}
+			CAIMColumnStore store = new CAIMColumnStore(data);
+
+			List<int[]> shards = partition(columns, costs, addresses.size() * SHARDS_PER_WORKER);
+			LinkedBlockingQueue<int[]> queue = new LinkedBlockingQueue<int[]>(shards);
+			AtomicInteger remaining = new AtomicInteger(shards.size());
+			AtomicReference<Exception> error = new AtomicReference<Exception>();
+			ConcurrentHashMap<Integer, ArrayList<Double>> schemes = new ConcurrentHashMap<Integer, ArrayList<Double>>();
+
+			threads = Executors.newFixedThreadPool(addresses.size(), job -> {
+				Thread thread = new Thread(job, "CAIMCoordinator");
+				thread.setDaemon(true);
+				return thread;
+			});
+
+			ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+			for (InetSocketAddress address : addresses)
+			{
+				Connection connection = new Connection();
+				connections.add(connection);
+				futures.add(threads.submit(() -> {
+					serve(connection, address, data, store, classIndex, classes, numberClasses, filter, queue, remaining, error, stopped, schemes);
+					return null;
+				}));
+			}
+
+			// Watches the deadline, cancellation and silent workers until every worker is done
+			while (!futures.stream().allMatch(Future::isDone))
+			{
+				if (filter.m_Cancelled != null && filter.m_Cancelled.get())
+				{
+					stop(stopped, connections);
+					throw new CancellationException("Discretization cancelled");
+				}
+				if (filter.m_Deadline > 0 && System.currentTimeMillis() >= filter.m_Deadline)
+				{
+					stop(stopped, connections);
+					throw new TimeoutException("Deadline passed before all attributes were discretized");
+				}
+				long now = System.currentTimeMillis();
+				for (Connection connection : connections)
+				{
+					long waiting = connection.waiting;
+					if (waiting != 0 && now - waiting > IDLE_TIMEOUT)
+					{
+						connection.timedOut = true;
+						close(connection);
+					}
+				}
+				Thread.sleep(100);
+			}
+
+			for (Future<?> future : futures)
+			{
+				try { future.get(); }
+				catch (ExecutionException e) { error.compareAndSet(null, (Exception) e.getCause()); }
+			}
+
+			if (error.get() != null) throw error.get();
+			if (remaining.get() > 0)
+				throw new IOException("All " + addresses.size() + " workers failed with " + remaining.get() + " shards left");
+
+			ArrayList<ArrayList<Double>> results = new ArrayList<ArrayList<Double>>(columns.length);
+			for (int column : columns) results.add(schemes.get(column));
+			return results;
+		}
+		finally
+		{
+			stop(stopped, connections);
+			if (threads != null) threads.shutdownNow();
+			for (Process process : processes) process.destroy();
+		}
+	}
+
+	// Ends the run, closing the connections so that their threads stop waiting on them
+	private static void stop(AtomicBoolean stopped, Set<Connection> connections)
+	{
+		stopped.set(true);
+		for (Connection connection : connections) close(connection);
+	}
+
+	private static void close(Connection connection)
+	{
+		try { connection.socket.close(); }
+		catch (IOException e) { }
+	}
+
+	/**
+	 * Splits columns into at most numberShards shards of about equal total cost,
+	 * giving each column, most expensive first, to the cheapest shard so far.
+	 */
+	static List<int[]> partition(int[] columns, double[] costs, int numberShards)
+	{
+		numberShards = Math.max(1, Math.min(numberShards, columns.length));
+		Integer[] order = new Integer[columns.length];
+		for (int k = 0; k < order.length; k++) order[k] = k;
+		Arrays.sort(order, (a, b) -> Double.compare(costs[b], costs[a]));
+
+		double[] load = new double[numberShards];
+		int[] sizes = new int[numberShards];
+		int[] shardOf = new int[columns.length];
+		for (int k : order)
+		{
+			int lightest = 0;
+			for (int s = 1; s < numberShards; s++)
+				if (load[s] < load[lightest]) lightest = s;
+			load[lightest] += costs[k];
+			shardOf[k] = lightest;
+			sizes[lightest]++;
+		}
+
+		ArrayList<int[]> shards = new ArrayList<int[]>(numberShards);
+		for (int s = 0; s < numberShards; s++) shards.add(new int[sizes[s]]);
+		int[] filled = new int[numberShards];
+		for (int k = 0; k < columns.length; k++)
+			shards.get(shardOf[k])[filled[shardOf[k]]++] = columns[k];
+		shards.removeIf(shard -> shard.length == 0);
+		return shards;
+	}
+
+	// Sends shards to one worker until none remain; when it fails or times out, its shard goes back to the queue
+	private void serve(Connection connection, InetSocketAddress address, Instances data, CAIMColumnStore store, int classIndex, int[] classes, int numberClasses, CAIMCPU filter,
+			LinkedBlockingQueue<int[]> queue, AtomicInteger remaining, AtomicReference<Exception> error, AtomicBoolean stopped,
+			ConcurrentHashMap<Integer, ArrayList<Double>> schemes) throws Exception
+	{
+		try (Socket socket = connection.socket)
+		{
+			connection.waiting = System.currentTimeMillis();
+			socket.connect(address, CONNECT_TIMEOUT);
+			socket.setSoTimeout(IDLE_TIMEOUT);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			start(out, classes, numberClasses, filter);
+			connection.waiting = 0;
+
+			while (remaining.get() > 0 && error.get() == null && !stopped.get())
+			{
+				int[] shard = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (shard == null) continue;
+
+				try
+				{
+					send(connection, out, data, store, classIndex, numberClasses, shard, filter.m_Histograms);
+					receive(connection, in, address, schemes);
+				}
+				catch (IOException e)
+				{
+					queue.add(shard);
+					if (!stopped.get()) rescheduled.incrementAndGet();
+					throw e;
+				}
+				finally
+				{
+					connection.waiting = 0;
+				}
+				remaining.decrementAndGet();
+			}
+		}
+		catch (IOException e)
+		{
+			if (stopped.get()) return;
+			failures.incrementAndGet();
+			if (connection.timedOut) timeouts.incrementAndGet();
+			filter.WorkerFailed(address.toString(), connection.timedOut, e);
+		}
+		catch (RuntimeException e)
+		{
+			// Stops the other workers too, as the shard would fail the same way on them
+			error.compareAndSet(null, e);
+		}
+	}
+
+	// Start of a connection: the search options and the class vector, as CAIMWorker reads them
+	private static void start(DataOutputStream out, int[] classes, int numberClasses, CAIMCPU filter) throws IOException
+	{
+		out.writeInt(CAIMWorker.MAGIC);
+		out.writeBoolean(filter.getBoundaryCandidates());
+		out.writeBoolean(filter.getIntervalCache());
+		out.writeBoolean(filter.getValidatePruning());
+		out.writeInt(filter.getMaxIntervals());
+		out.writeLong(filter.getAttributeTimeBudget());
+		// What is left of the run time budget, from when the worker reads it
+		long runBudgetEnd = filter.m_RunBudgetEnd;
+		out.writeLong(runBudgetEnd == 0 ? 0 : Math.max(1, (runBudgetEnd - System.nanoTime()) / 1000000L));
+
+		out.writeInt(numberClasses);
+		out.writeInt(classes.length);
+		for (int classValue : classes) CAIMWorker.writeCode(out, classValue, numberClasses);
+		out.flush();
+	}
+
+	// One request: the shard's attributes, each encoded as it is sent and released after, and its histogram kept if kept is not null
+	private static void send(Connection connection, DataOutputStream out, Instances data, CAIMColumnStore store, int classIndex, int numberClasses, int[] shard,
+			CAIMHistogram[] kept) throws IOException
+	{
+		connection.waiting = System.currentTimeMillis();
+		out.writeInt(shard.length);
+		for (int attribute : shard)
+		{
+			connection.waiting = 0;
+			CAIMHistogram histogram = CAIMHistogram.buildChunked(data, attribute, classIndex, numberClasses, 1, CAIMCPU.SHARD_ROWS);
+			store.encode(attribute, histogram, 1);
+			if (kept != null) kept[attribute] = histogram.trimmed();
+			connection.waiting = System.currentTimeMillis();
+
+			int numberValues = store.numberValues(attribute);
+			out.writeInt(attribute);
+			out.writeInt(numberValues);
+			for (double value : store.values(attribute)) out.writeDouble(value);
+			for (int i = 0; i < store.numInstances(); i++) CAIMWorker.writeCode(out, store.code(attribute, i), numberValues);
+			store.release(attribute);
+		}
+		out.flush();
+	}
+
+	// The answer to a request, after any heartbeats
+	private void receive(Connection connection, DataInputStream in, InetSocketAddress address, ConcurrentHashMap<Integer, ArrayList<Double>> schemes) throws IOException
+	{
+		int numberAttributes;
+		while ((numberAttributes = in.readInt()) == CAIMWorker.HEARTBEAT)
+			connection.waiting = System.currentTimeMillis();
+		if (numberAttributes == CAIMWorker.ERROR)
+			throw new IllegalStateException("Worker " + address + ": " + in.readUTF());
+
+		for (int a = 0; a < numberAttributes; a++)
+		{
+			int attribute = in.readInt();
+			int attributeFlags = in.readByte();
+			int numberCuts = in.readInt();
+			ArrayList<Double> scheme = new ArrayList<Double>(numberCuts);
+			for (int i = 0; i < numberCuts; i++) scheme.add(in.readDouble());
+			schemes.put(attribute, scheme);
+			flags.put(attribute, attributeFlags);
+		}
+	}
+
+	// Starts a worker JVM with this JVM's class path
+	private static Process startLocal() throws IOException
+	{
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), CAIMWorker.class.getName(), "-p", "0", "-b", InetAddress.getLoopbackAddress().getHostAddress());
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+		return builder.start();
+	}
+
+	// Port printed by a local worker on its first line
+	private static int localPort(Process process) throws IOException
+	{
+		BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+		String line = reader.readLine();
+		if (line == null) throw new IOException("Local CAIMWorker exited before listening");
+		return Integer.parseInt(line.substring(line.lastIndexOf(' ') + 1));
+	}
+}
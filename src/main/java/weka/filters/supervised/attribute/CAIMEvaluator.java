@@ -0,0 +1,224 @@
+package weka.filters.supervised.attribute;
+
+import java.util.Arrays;
+
+/**
+ * Scores CAIM discretization schemes over the sorted distinct values of one
+ * attribute. Per-class cumulative counts give the quanta matrix column of any
+ * interval in O(classes), so a candidate midpoint is scored without rebuilding
+ * the quanta matrix.
+ *
+ * Candidates can be restricted to boundary midpoints, where the class
+ * distribution changes between neighbouring values (CAIMHistogram.isBoundary).
+ */
+class CAIMEvaluator
+{
+	private final double[] values;
+	private final int numberValues;
+	private final int numberClasses;
+
+	// cumulative[i*numberClasses + c] = instances of class c among values[0..i)
+	private final int[] cumulative;
+
+	// Candidate midpoints and the value index ranges they close and open
+	private final double[] candidates;
+	private final int[] candidateUpper;
+	private final int[] candidateLower;
+
+	// Current scheme: sorted boundaries, and the [left, right) value range and CAIM term of each interval
+	private double[] boundaries = new double[0];
+	private int numberBoundaries;
+	private int[] intervalLeft = new int[0];
+	private int[] intervalRight = new int[0];
+	private double[] intervalTerm = new double[0];
+
+	// Sorted cut points of a resumed scheme, whose intervals are half-open as CAIMConverter reads them
+	private double[] retained = new double[0];
+
+	public CAIMEvaluator(CAIMHistogram histogram)
+	{
+		this(histogram, false);
+	}
+
+	public CAIMEvaluator(CAIMHistogram histogram, boolean boundaryOnly)
+	{
+		this.values = histogram.values;
+		this.numberValues = histogram.numberValues;
+		this.numberClasses = histogram.numberClasses;
+		this.cumulative = new int[(numberValues + 1) * numberClasses];
+
+		int[] appearance = histogram.appearance;
+		for (int i = 0, k = 0; i < numberValues; i++)
+			for (int c = 0; c < numberClasses; c++, k++)
+				cumulative[k + numberClasses] = cumulative[k] + appearance[k];
+
+		int numberCandidates = 0;
+		for (int i = 0; i < numberValues - 1; i++)
+			if (!boundaryOnly || histogram.isBoundary(i))
+				numberCandidates++;
+
+		candidates = new double[numberCandidates];
+		candidateUpper = new int[numberCandidates];
+		candidateLower = new int[numberCandidates];
+
+		for (int i = 0, k = 0; i < numberValues - 1; i++)
+		{
+			if (boundaryOnly && !histogram.isBoundary(i)) continue;
+
+			candidates[k] = histogram.midpoint(i);
+			candidateUpper[k] = upperIndex(candidates[k]);
+			candidateLower[k] = lowerIndex(candidates[k]);
+			k++;
+		}
+	}
+
+	public int numberCandidates()
+	{
+		return candidates.length;
+	}
+
+	public double candidate(int i)
+	{
+		return candidates[i];
+	}
+
+	// Value index range [.., upper) closed and [lower, ..) opened by a candidate
+	int candidateUpper(int i)
+	{
+		return candidateUpper[i];
+	}
+
+	int candidateLower(int i)
+	{
+		return candidateLower[i];
+	}
+
+	/**
+	 * Sets the inner cut points retained from an earlier scheme, sorted. A value equal to one
+	 * belongs to the interval below it only, as in the converted output, rather than to both
+	 * intervals as for the candidate midpoints.
+	 */
+	public void setRetained(double[] sortedCuts)
+	{
+		retained = sortedCuts;
+	}
+
+	/**
+	 * Sets the boundaries of the current scheme, including both end points.
+	 */
+	public void setBoundaries(double[] sortedBoundaries, int count)
+	{
+		if (boundaries.length < count)
+		{
+			boundaries = new double[sortedBoundaries.length];
+			intervalLeft = new int[sortedBoundaries.length];
+			intervalRight = new int[sortedBoundaries.length];
+			intervalTerm = new double[sortedBoundaries.length];
+		}
+
+		System.arraycopy(sortedBoundaries, 0, boundaries, 0, count);
+		numberBoundaries = count;
+
+		for (int i = 0; i < count - 1; i++)
+		{
+			// An interval above a retained cut starts after the values on it
+			intervalLeft[i] = i > 0 && Arrays.binarySearch(retained, boundaries[i]) >= 0 ? intervalRight[i-1] : lowerIndex(boundaries[i]);
+			intervalRight[i] = upperIndex(boundaries[i+1]);
+			intervalTerm[i] = term(intervalLeft[i], intervalRight[i]);
+		}
+	}
+
+	/**
+	 * CAIM value of the current scheme.
+	 */
+	public double schemeCAIM()
+	{
+		double CAIMvalue = 0;
+		for (int i = 0; i < numberBoundaries - 1; i++)
+			CAIMvalue += intervalTerm[i];
+		return CAIMvalue / (numberBoundaries - 1);
+	}
+
+	/**
+	 * CAIM value of the current scheme after adding the given candidate midpoint as a new boundary.
+	 */
+	public double evaluate(int candidate)
+	{
+		int numberIntervals = numberBoundaries - 1;
+
+		// Interval split by the candidate, as if it were sorted into the boundaries
+		int split = lowerBoundary(candidates[candidate]) - 1;
+		if (split < 0) split = 0;
+		if (split > numberIntervals - 1) split = numberIntervals - 1;
+
+		double CAIMvalue = 0;
+
+		for (int i = 0; i < split; i++)
+			CAIMvalue += intervalTerm[i];
+
+		CAIMvalue += term(intervalLeft[split], candidateUpper[candidate]);
+		CAIMvalue += term(candidateLower[candidate], intervalRight[split]);
+
+		for (int i = split + 1; i < numberIntervals; i++)
+			CAIMvalue += intervalTerm[i];
+
+		return CAIMvalue / (numberIntervals + 1);
+	}
+
+	/**
+	 * CAIM term max^2/M of the interval covering values[left..right), 0 if it has no instances,
+	 * as between two equal retained cuts.
+	 */
+	protected double term(int left, int right)
+	{
+		long max = 0;
+		int sum = 0;
+
+		for (int c = 0; c < numberClasses; c++)
+		{
+			int count = cumulative[right*numberClasses + c] - cumulative[left*numberClasses + c];
+			sum += count;
+			if (count > max) max = count;
+		}
+
+		if (sum == 0) return 0;
+		double res = max / (double) sum;
+		return max * res;
+	}
+
+	// First value index not below the point
+	int lowerIndex(double point)
+	{
+		int low = 0, high = numberValues;
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (values[mid] < point) low = mid + 1; else high = mid;
+		}
+		return low;
+	}
+
+	// First value index above the point
+	int upperIndex(double point)
+	{
+		int low = 0, high = numberValues;
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (values[mid] <= point) low = mid + 1; else high = mid;
+		}
+		return low;
+	}
+
+	// Number of boundaries below the point
+	private int lowerBoundary(double point)
+	{
+		int low = 0, high = numberBoundaries;
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (boundaries[mid] < point) low = mid + 1; else high = mid;
+		}
+		return low;
+	}
+}
@@ -0,0 +1,159 @@
+package weka.filters.supervised.attribute;
+
+import java.util.Random;
+
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Sorted class-count histograms of every numeric attribute of a full data
+ * set, built once and reused for cross-validation folds and bootstrap
+ * samples. The histogram of a training subset is derived from the full one
+ * by adjusting the counts of the rows whose weight is not one, so each fold
+ * costs no sort. The class is the last attribute, as in CAIMCPU. CAIMGPU
+ * searches a batch with training rows on the CPU, as CAIMCPU, rather than
+ * sorting it again on its kernels.
+ *
+ * <pre>
+ * CAIMFoldHistograms histograms = new CAIMFoldHistograms(data);
+ * for (int fold = 0; fold &lt; numFolds; fold++)
+ * {
+ *     CAIMCPU filter = new CAIMCPU();
+ *     filter.setTrainingRows(histograms, histograms.trainCV(numFolds, fold));
+ *     filter.setInputFormat(data.trainCV(numFolds, fold));
+ *     ...
+ * }
+ * </pre>
+ */
+public class CAIMFoldHistograms
+{
+	private final int numberInstances;
+	private final int numberAttributes;
+	private final int numberClasses;
+
+	// Rank codes of every numeric attribute, and the full histogram counts of each
+	private final CAIMColumnStore store;
+	private final int[][] appearance;
+
+	// Class of each row, -1 when missing
+	private final int[] classValues;
+
+	public CAIMFoldHistograms(Instances data)
+	{
+		numberInstances = data.numInstances();
+		numberAttributes = data.numAttributes();
+		int classIndex = numberAttributes - 1;
+		numberClasses = data.attribute(classIndex).numValues();
+
+		classValues = new int[numberInstances];
+		for (int i = 0; i < numberInstances; i++)
+		{
+			double classValue = data.instance(i).value(classIndex);
+			classValues[i] = Utils.isMissingValue(classValue) ? -1 : (int) classValue;
+		}
+
+		store = new CAIMColumnStore(data);
+		appearance = new int[numberAttributes][];
+
+		for (int attribute = 0; attribute < classIndex; attribute++)
+		{
+			if (!data.attribute(attribute).isNumeric()) continue;
+
+			CAIMHistogram histogram = CAIMHistogram.buildChunked(data, attribute, classIndex, numberClasses, 1, CAIMCPU.SHARD_ROWS);
+			store.encode(attribute, histogram, 1);
+			appearance[attribute] = histogram.appearance;
+		}
+	}
+
+	public int numInstances()
+	{
+		return numberInstances;
+	}
+
+	public int numAttributes()
+	{
+		return numberAttributes;
+	}
+
+	/**
+	 * Distinct values of a numeric attribute over the full data set.
+	 */
+	public int numberValues(int attribute)
+	{
+		return store.numberValues(attribute);
+	}
+
+	/**
+	 * Row weights of the training set of a cross-validation fold, matching Instances.trainCV.
+	 */
+	public int[] trainCV(int numFolds, int numFold)
+	{
+		int numInstForFold = numberInstances / numFolds;
+		int offset;
+
+		if (numFold < numberInstances % numFolds)
+		{
+			numInstForFold++;
+			offset = numFold;
+		}
+		else
+			offset = numberInstances % numFolds;
+
+		int first = numFold * (numberInstances / numFolds) + offset;
+
+		int[] weights = new int[numberInstances];
+		for (int i = 0; i < numberInstances; i++)
+			weights[i] = i >= first && i < first + numInstForFold ? 0 : 1;
+
+		return weights;
+	}
+
+	/**
+	 * Row weights of a bootstrap sample, drawing the same rows as Instances.resample with the same generator.
+	 */
+	public int[] resample(Random random)
+	{
+		int[] weights = new int[numberInstances];
+
+		for (int i = 0; i < numberInstances; i++)
+			weights[random.nextInt(numberInstances)]++;
+
+		return weights;
+	}
+
+	/**
+	 * Rows whose weight is not one, the only ones whose counts differ from the full data set's.
+	 * Found once per training set, for all its attributes.
+	 */
+	static int[] reweighted(int[] weights)
+	{
+		int numberRows = 0;
+		for (int weight : weights)
+			if (weight != 1) numberRows++;
+
+		int[] rows = new int[numberRows];
+		for (int i = 0, k = 0; i < weights.length; i++)
+			if (weights[i] != 1) rows[k++] = i;
+
+		return rows;
+	}
+
+	/**
+	 * Histogram of a numeric attribute over the training set where row i appears weights[i] times,
+	 * given its reweighted rows.
+	 */
+	CAIMHistogram histogram(int attribute, int[] weights, int[] rows)
+	{
+		int[] counts = appearance[attribute].clone();
+
+		for (int i : rows)
+		{
+			int code = store.code(attribute, i), classValue = classValues[i];
+			if (code >= 0 && classValue >= 0)
+				counts[code*numberClasses + classValue] += weights[i] - 1;
+		}
+
+		// Drop values that no training row takes
+		return CAIMColumnStore.histogram(store.values(attribute), counts, numberClasses);
+	}
+}
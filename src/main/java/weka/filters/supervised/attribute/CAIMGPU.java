@@ -1,10 +1,9 @@
 package weka.filters.supervised.attribute;
 
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.Enumeration;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 
 import weka.core.Attribute;
 import weka.core.Instances;
@@ -15,13 +14,79 @@ public class CAIMGPU extends CAIMCPU
 	
 	private Instances Data;
 	
+	// Whether the GPU library loaded and sees a device, checked once per JVM
+	private static Boolean nativeGPU;
+	
 	public native void initializeGPU(CAIMGPU algorithm, int attribute, int numberClasses, int numberAttributes, int numberInstances);
 	
+	public native float[] discretizeGPU(FloatBuffer attributeValues, IntBuffer classValues, int numberInstances, int numberClasses, int device);
+	
+	public native int getDeviceCount();
+	
+	/**
+	 * Whether the native GPU library is available and at least one CUDA device is present.
+	 * Otherwise attributes are discretized by the equivalent Java kernel CAIMKernelCPU.
+	 */
+	public synchronized boolean isNativeGPU()
+	{
+		if (nativeGPU == null)
+		{
+			try
+			{
+				System.loadLibrary("gpu");
+				nativeGPU = getDeviceCount() > 0;
+			}
+			catch (UnsatisfiedLinkError e)
+			{
+				// Libraries built before getDeviceCount was added still run on the GPU
+				nativeGPU = e.getMessage() != null && e.getMessage().contains("getDeviceCount");
+			}
+			catch (SecurityException e)
+			{
+				nativeGPU = false;
+			}
+		}
+		
+		return nativeGPU;
+	}
+	
+	/**
+	 * Rejects the time budgets and the interval cap unless the batch is searched on the CPU,
+	 * as a kernel runs each search to its end. Streaming summaries and training rows from
+	 * fold histograms are searched on the CPU, and honour them.
+	 * Rejects workers, as the kernels run in this JVM and CAIMWorker searches on the CPU.
+	 */
+	protected void CheckOptions()
+	{
+		super.CheckOptions();
+		if (m_StreamingBins == 0 && m_FoldHistograms == null && (m_AttributeTimeBudget > 0 || m_RunTimeBudget > 0 || m_MaxIntervals > 0))
+			throw new IllegalArgumentException("The GPU kernels cannot stop a search early, so -T, -B and -M apply only to CAIMCPU, with -S or with training rows");
+		if (m_Workers.length() > 0)
+			throw new IllegalArgumentException("CAIMGPU runs its kernels in this JVM, so -W applies only to CAIMCPU");
+	}
+	
+	/**
+	 * As CAIMCPU.setTrainingRows. The kernels sort the input they are given, so a batch with
+	 * training rows is searched on the CPU from the fold histograms instead, as CAIMCPU.
+	 */
+	public void setTrainingRows(CAIMFoldHistograms histograms, int[] weights)
+	{
+		super.setTrainingRows(histograms, weights);
+	}
+	
 	public boolean batchFinished()  throws Exception
 	{
+		ClearCancelled();
+		// Streaming summaries and fold histograms are searched on the CPU, and later batches were converted as they arrived
+		if (m_StreamingBins > 0 || m_FoldHistograms != null || isFirstBatchDone())
+			return super.batchFinished();
+		
+		CheckOptions();
+		long start = System.nanoTime();
 		Data = getInputFormat();
 		SchemeList = new ArrayList<>();
 		Attribute ClassAttribute = Data.attribute(Data.numAttributes()-1);
+		Index = ClassAttribute.index();
 		
 		Enumeration<Object> enu = ClassAttribute.enumerateValues();
 		ClassValueList = new ArrayList<String>();
@@ -29,48 +94,77 @@ public class CAIMGPU extends CAIMCPU
 		while(enu.hasMoreElements())
 			ClassValueList.add((String)enu.nextElement());
 		
-		try {
-			System.loadLibrary("gpu");
-		} catch (Exception e) {
-			throw new Exception("Can't load the GPU library. Please make sure to include gpu library path");
-		}
+		CAIMGPUBackend discretizer = isNativeGPU() ? this::discretizeNative : CAIMKernelCPU::discretize;
 		
 		for (int current=0; current<Data.numAttributes(); current++)
 			SchemeList.add(new ArrayList<Double>());
 		
-		ExecutorService threadExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-		
+		ArrayList<Integer> Attributes = new ArrayList<Integer>();
 		for (int current=0;current<Data.numAttributes()-1;current++)
 		{
 			if (!Data.attribute(current).isNumeric()) continue;
 			if (!m_DiscretizeCols.isInRange(current)) continue;
 			
-			threadExecutor.execute(new evaluationThread(this, current));
+			Attributes.add(current);
 		}
 		
-		threadExecutor.shutdown();
+		int[] columns = Attributes.stream().mapToInt(Integer::intValue).toArray();
+		CAIMRunMetrics run = StartRun(Data, columns.length);
+		m_Histograms = m_KeepHistograms ? new CAIMHistogram[Data.numAttributes()] : null;
 		
-		try
-		{
-			if (!threadExecutor.awaitTermination(30, TimeUnit.DAYS))
-				System.out.println("Threadpool timeout occurred");
-		}
-		catch (InterruptedException ie)
+		CAIMColumnStaging staging = new CAIMColumnStaging(Data, columns);
+		run.extractionNanos = System.nanoTime() - start;
+		
+		double[] costs = new double[columns.length];
+		long[] footprints = new long[columns.length];
+		for (int k = 0; k < columns.length; k++)
 		{
-			System.out.println("Threadpool prematurely terminated due to interruption in thread that created pool");
+			double distinct = CAIMScheduler.estimateDistinct(Data, columns[k]);
+			costs[k] = distinct * ClassValueList.size();
+			footprints[k] = m_MemoryBudget > 0 ? Footprint(Data.numInstances(), CAIMScheduler.estimateDistinctHigh(Data, columns[k]), ClassValueList.size()) : 0;
 		}
-
+		
+		// The staged columns are held through the whole run, besides the jobs
+		long reserved = 4L * Data.numInstances() * (columns.length + 1);
+		CAIMScheduler scheduler = Scheduler(m_MemoryBudget > 0 ? Math.max(1024, m_MemoryBudget * 1048576L - reserved) : 0);
+		ArrayList<ArrayList<Double>> schemes = scheduler.run(columns, costs, footprints, attribute -> evaluate(discretizer, staging, attribute));
+		
+		for (int k = 0; k < columns.length; k++)
+			SchemeList.set(columns[k], schemes.get(k));
+		
 		if (getInputFormat() == null)
 			throw new IllegalStateException("No input instance format defined");
 		
 		setOutputFormat();
 		
-		for(int i = 0; i < getInputFormat().numInstances(); i++)
-			convertInstance(getInputFormat().instance(i));
+		long converting = System.nanoTime();
+		convertInput();
+		run.conversionNanos = System.nanoTime() - converting;
+		FinishRun(run, scheduler, start);
 		
-		return true;
+		return BatchDone();
 	}
-
+	
+	// One native call per attribute on the staged buffers, or the per-attribute upcalls of libraries built before discretizeGPU
+	private float[] discretizeNative(FloatBuffer attributeValues, IntBuffer classValues, int numberInstances, int numberClasses, int attribute)
+	{
+		try
+		{
+			return discretizeGPU(attributeValues, classValues, numberInstances, numberClasses, attribute);
+		}
+		catch (UnsatisfiedLinkError e)
+		{
+			initializeGPU(this, attribute, numberClasses, Data.numAttributes(), numberInstances);
+			
+			ArrayList<Double> intervals = SchemeList.get(attribute);
+			float[] scheme = new float[intervals.size()];
+			for (int i = 0; i < scheme.length; i++)
+				scheme[i] = intervals.get(i).floatValue();
+			
+			return scheme;
+		}
+	}
+	
 	public float[] getAttributeValues(int attribute)
 	{
 		float[] attributeValues = new float[Data.numInstances()];
@@ -96,24 +190,35 @@ public class CAIMGPU extends CAIMCPU
 		SchemeList.get(attribute).add(1.0*intervalValue);
 	}
 	
-	/////////////////////////////////////////////////////////////////
-	// -------------------------------------------- Evaluation Thread
-	/////////////////////////////////////////////////////////////////
-
-	private class evaluationThread extends Thread
+	// Scheme of one staged attribute, run by the scheduler
+	private ArrayList<Double> evaluate(CAIMGPUBackend discretizer, CAIMColumnStaging staging, int attribute)
 	{
-		private int attribute;
-		private CAIMGPU algorithm;
-
-		public evaluationThread(CAIMGPU algorithm, int attribute)
-		{
-			this.algorithm = algorithm;
-			this.attribute = attribute;
-		}
-
-		public void run()
+		CAIMAttributeMetrics metrics = new CAIMAttributeMetrics(attribute, Data.attribute(attribute).name());
+		long searching = System.nanoTime();
+		
+		float[] scheme = discretizer.discretize(staging.column(attribute), staging.classValues(), staging.numberInstances(), Data.numClasses(), attribute);
+		
+		// The kernels keep no histogram, so one is built on the CPU for update to merge into
+		if (m_Histograms != null)
 		{
-			initializeGPU(algorithm, attribute, Data.numClasses(), Data.numAttributes(), Data.numInstances());
+			long sorting = System.nanoTime();
+			m_Histograms[attribute] = CAIMHistogram.buildChunked(Data, attribute, Index, Data.numClasses(), 1, SHARD_ROWS).trimmed();
+			metrics.sortNanos = System.nanoTime() - sorting;
 		}
+		
+		ArrayList<Double> intervals = new ArrayList<Double>(scheme.length);
+		for (int i = 0; i < scheme.length; i++)
+			intervals.add(1.0*scheme[i]);
+		
+		// The kernels sort, deduplicate and search in one call
+		metrics.searchNanos = System.nanoTime() - searching - metrics.sortNanos;
+		AttributeDiscretized(metrics, intervals);
+		
+		return intervals;
+	}
+	
+	public static void main(String[] argv)
+	{
+		runFilter(new CAIMGPU(), argv);
 	}
-}
\ No newline at end of file
+}
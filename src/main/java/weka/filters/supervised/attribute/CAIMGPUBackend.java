@@ -0,0 +1,17 @@
+package weka.filters.supervised.attribute;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Discretizes one staged attribute for CAIMGPU. Implemented by the native GPU
+ * library and by CAIMKernelCPU.
+ */
+interface CAIMGPUBackend
+{
+	/**
+	 * Returns the sorted cut points of the attribute, including both end points.
+	 * The buffers must not be modified, they are shared by concurrent calls.
+	 */
+	float[] discretize(FloatBuffer attributeValues, IntBuffer classValues, int numberInstances, int numberClasses, int attribute);
+}
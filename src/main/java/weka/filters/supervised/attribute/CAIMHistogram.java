@@ -0,0 +1,357 @@
+package weka.filters.supervised.attribute;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Sorted distinct values of a numeric attribute and the number of instances of
+ * each class taking each value. Counts are stored flat as
+ * appearance[value*numberClasses + class], the layout used by gpu.cu.
+ * Instances with a missing attribute or class value are not counted.
+ *
+ * A histogram can also hold bins covering a range of values, from values[i]
+ * up to upperValues[i]. Candidate cut points then lie between bins.
+ */
+class CAIMHistogram
+{
+	final double[] values;
+	final int numberValues;
+	final int numberClasses;
+	final int[] appearance;
+	final double[] upperValues;
+
+	CAIMHistogram(double[] values, int numberValues, int numberClasses, int[] appearance)
+	{
+		this(values, null, numberValues, numberClasses, appearance);
+	}
+
+	CAIMHistogram(double[] values, double[] upperValues, int numberValues, int numberClasses, int[] appearance)
+	{
+		this.values = values;
+		this.upperValues = upperValues;
+		this.numberValues = numberValues;
+		this.numberClasses = numberClasses;
+		this.appearance = appearance;
+	}
+
+	public static CAIMHistogram build(Instances data, int column, int classIndex, int numberClasses)
+	{
+		double[] attributeValues = new double[data.numInstances()];
+		int[] classValues = new int[data.numInstances()];
+		int length = extract(data, column, classIndex, attributeValues, classValues);
+
+		return build(attributeValues, classValues, length, numberClasses);
+	}
+
+	/**
+	 * Copies the attribute and class columns of the instances with both values known,
+	 * returning how many were copied.
+	 */
+	public static int extract(Instances data, int column, int classIndex, double[] attributeValues, int[] classValues)
+	{
+		return extract(data, column, classIndex, 0, data.numInstances(), attributeValues, classValues);
+	}
+
+	/**
+	 * As extract, for the instances from to to only, copied from index 0.
+	 */
+	public static int extract(Instances data, int column, int classIndex, int from, int to, double[] attributeValues, int[] classValues)
+	{
+		int length = 0;
+
+		for (int i = from; i < to; i++)
+		{
+			Instance instance = data.instance(i);
+			double value = instance.value(column);
+			double classValue = instance.value(classIndex);
+
+			if (Utils.isMissingValue(value) || Utils.isMissingValue(classValue)) continue;
+
+			attributeValues[length] = value;
+			classValues[length] = (int) classValue;
+			length++;
+		}
+
+		return length;
+	}
+
+	/**
+	 * Builds the histogram of the first length entries, sorting both arrays in place.
+	 * The deduplicated values are written back into the front of attributeValues.
+	 */
+	public static CAIMHistogram build(double[] attributeValues, int[] classValues, int length, int numberClasses)
+	{
+		CAIMSort.sortByKey(attributeValues, classValues, 0, length);
+		int[] appearance = deduplicate(attributeValues, classValues, 0, length, numberClasses);
+
+		return new CAIMHistogram(attributeValues, length == 0 ? 0 : appearance.length / numberClasses, numberClasses, appearance);
+	}
+
+	/**
+	 * As build, but splits the entries into shards that are sorted and counted in parallel,
+	 * then k-way merges the shard histograms. Both arrays are reordered in place.
+	 */
+	public static CAIMHistogram buildSharded(double[] attributeValues, int[] classValues, int length, int numberClasses, int numberShards)
+	{
+		if (numberShards <= 1 || length < numberShards) return build(attributeValues, classValues, length, numberClasses);
+
+		int[] from = new int[numberShards + 1];
+		for (int s = 0; s <= numberShards; s++)
+			from[s] = (int) ((long) length * s / numberShards);
+
+		int[][] shards = new int[numberShards][];
+		IntStream.range(0, numberShards).parallel().forEach(s -> {
+			CAIMSort.sortByKey(attributeValues, classValues, from[s], from[s+1]);
+			shards[s] = deduplicate(attributeValues, classValues, from[s], from[s+1], numberClasses);
+		});
+
+		double[][] shardValues = new double[numberShards][];
+		Arrays.fill(shardValues, attributeValues);
+		return merge(shardValues, from, shards, numberClasses);
+	}
+
+	/**
+	 * Histogram of a column of data, as build, reading it in chunks of at most chunkRows rows.
+	 * numberShards chunks at a time are sorted and counted in parallel, each into a buffer of
+	 * its own, and the chunk histograms are k-way merged as in buildSharded. Only the chunks
+	 * being sorted are held as rows, rather than a copy of the whole column.
+	 */
+	public static CAIMHistogram buildChunked(Instances data, int column, int classIndex, int numberClasses, int numberShards, int chunkRows)
+	{
+		int numberInstances = data.numInstances();
+		int numberChunks = Math.max(1, (numberInstances + chunkRows - 1) / chunkRows);
+		int bufferRows = Math.min(chunkRows, numberInstances);
+		numberShards = Math.max(1, Math.min(numberShards, numberChunks));
+
+		double[][] chunkValues = new double[numberChunks][];
+		int[][] chunks = new int[numberChunks][];
+		int[] from = new int[numberChunks];
+
+		// Shard s sorts chunks s, s + numberShards, ... in turn
+		int shards = numberShards;
+		IntStream shardStream = IntStream.range(0, numberShards);
+		if (numberShards > 1) shardStream = shardStream.parallel();
+		shardStream.forEach(s -> {
+			double[] attributeValues = new double[bufferRows];
+			int[] classValues = new int[bufferRows];
+			for (int c = s; c < numberChunks; c += shards)
+			{
+				int length = extract(data, column, classIndex, c * chunkRows, Math.min(numberInstances, (c + 1) * chunkRows), attributeValues, classValues);
+				CAIMSort.sortByKey(attributeValues, classValues, 0, length);
+				chunks[c] = deduplicate(attributeValues, classValues, 0, length, numberClasses);
+				chunkValues[c] = Arrays.copyOf(attributeValues, chunks[c].length / numberClasses);
+			}
+		});
+
+		return merge(chunkValues, from, chunks, numberClasses);
+	}
+
+	// Counts the sorted entries in [from, to), writing the distinct values back from index from
+	private static int[] deduplicate(double[] attributeValues, int[] classValues, int from, int to, int numberClasses)
+	{
+		int numberValues = 0;
+		for (int i = from; i < to; i++)
+			if (i == from || Double.compare(attributeValues[i], attributeValues[i-1]) != 0)
+				numberValues++;
+
+		int[] appearance = new int[numberValues * numberClasses];
+		int offset = from - 1;
+
+		for (int i = from; i < to; i++)
+		{
+			if (i == from || Double.compare(attributeValues[i], attributeValues[offset]) != 0)
+				attributeValues[++offset] = attributeValues[i];
+
+			appearance[(offset - from)*numberClasses + classValues[i]]++;
+		}
+
+		return appearance;
+	}
+
+	// Merges shard s, whose distinct values start at attributeValues[s][from[s]], through a heap of shards keyed by their next value
+	private static CAIMHistogram merge(double[][] attributeValues, int[] from, int[][] shards, int numberClasses)
+	{
+		int numberShards = shards.length;
+		int[] position = new int[numberShards];
+		int[] heap = new int[numberShards];
+		int heapSize = 0, bound = 0;
+
+		for (int s = 0; s < numberShards; s++)
+		{
+			bound += shards[s].length / numberClasses;
+			if (shards[s].length > 0) heap[heapSize++] = s;
+		}
+		for (int i = heapSize / 2 - 1; i >= 0; i--)
+			siftDown(heap, i, heapSize, attributeValues, from, position);
+
+		double[] values = new double[bound];
+		int[] appearance = new int[bound * numberClasses];
+		int numberValues = 0;
+
+		while (heapSize > 0)
+		{
+			int s = heap[0];
+			double value = attributeValues[s][from[s] + position[s]];
+
+			if (numberValues == 0 || Double.compare(values[numberValues-1], value) != 0)
+				values[numberValues++] = value;
+
+			int source = position[s] * numberClasses, target = (numberValues - 1) * numberClasses;
+			for (int c = 0; c < numberClasses; c++)
+				appearance[target + c] += shards[s][source + c];
+
+			if (++position[s] * numberClasses == shards[s].length) heap[0] = heap[--heapSize];
+			siftDown(heap, 0, heapSize, attributeValues, from, position);
+		}
+
+		if (numberValues < bound)
+		{
+			values = Arrays.copyOf(values, numberValues);
+			appearance = Arrays.copyOf(appearance, numberValues * numberClasses);
+		}
+
+		return new CAIMHistogram(values, numberValues, numberClasses, appearance);
+	}
+
+	private static void siftDown(int[] heap, int root, int heapSize, double[][] attributeValues, int[] from, int[] position)
+	{
+		while (2 * root + 1 < heapSize)
+		{
+			int child = 2 * root + 1;
+			if (child + 1 < heapSize && Double.compare(next(attributeValues, from, position, heap[child+1]), next(attributeValues, from, position, heap[child])) < 0) child++;
+			if (Double.compare(next(attributeValues, from, position, heap[root]), next(attributeValues, from, position, heap[child])) <= 0) return;
+			int shard = heap[root]; heap[root] = heap[child]; heap[child] = shard;
+			root = child;
+		}
+	}
+
+	private static double next(double[][] attributeValues, int[] from, int[] position, int shard)
+	{
+		return attributeValues[shard][from[shard] + position[shard]];
+	}
+
+	/**
+	 * Copy holding no more array space than its values need, for keeping between batches.
+	 */
+	public CAIMHistogram trimmed()
+	{
+		return new CAIMHistogram(Arrays.copyOf(values, numberValues), upperValues == null ? null : Arrays.copyOf(upperValues, numberValues),
+				numberValues, numberClasses, Arrays.copyOf(appearance, numberValues * numberClasses));
+	}
+
+	/**
+	 * Histogram of the instances counted in both histograms, which hold single values.
+	 */
+	public static CAIMHistogram merge(CAIMHistogram first, CAIMHistogram second)
+	{
+		if (first.upperValues != null || second.upperValues != null)
+			throw new IllegalArgumentException("Histograms of value ranges cannot be merged");
+
+		int numberClasses = first.numberClasses;
+		double[] values = new double[first.numberValues + second.numberValues];
+		int[] appearance = new int[values.length * numberClasses];
+		int numberValues = 0;
+
+		for (int i = 0, j = 0; i < first.numberValues || j < second.numberValues; numberValues++)
+		{
+			int cmp = i == first.numberValues ? 1 : j == second.numberValues ? -1 : Double.compare(first.values[i], second.values[j]);
+
+			if (cmp <= 0)
+			{
+				values[numberValues] = first.values[i];
+				for (int c = 0; c < numberClasses; c++)
+					appearance[numberValues*numberClasses + c] += first.appearance[i*numberClasses + c];
+				i++;
+			}
+			if (cmp >= 0)
+			{
+				values[numberValues] = second.values[j];
+				for (int c = 0; c < numberClasses; c++)
+					appearance[numberValues*numberClasses + c] += second.appearance[j*numberClasses + c];
+				j++;
+			}
+		}
+
+		return new CAIMHistogram(values, numberValues, numberClasses, appearance).trimmed();
+	}
+
+	/**
+	 * Total variation distance, from 0 to 1, between the value and class distributions of a
+	 * histogram and of a histogram merged from it, whose values include all of its values.
+	 */
+	public static double distance(CAIMHistogram previous, CAIMHistogram merged)
+	{
+		long previousTotal = previous.total(), mergedTotal = merged.total();
+		if (previousTotal == 0) return mergedTotal == 0 ? 0 : 1;
+
+		double sum = 0;
+		for (int v = 0, p = 0; v < merged.numberValues; v++)
+		{
+			boolean shared = p < previous.numberValues && Double.compare(previous.values[p], merged.values[v]) == 0;
+			for (int c = 0; c < merged.numberClasses; c++)
+			{
+				double before = shared ? previous.appearance[p*merged.numberClasses + c] / (double) previousTotal : 0;
+				sum += Math.abs(before - merged.appearance[v*merged.numberClasses + c] / (double) mergedTotal);
+			}
+			if (shared) p++;
+		}
+
+		return sum / 2;
+	}
+
+	// Instances counted
+	private long total()
+	{
+		long total = 0;
+		for (int k = 0; k < numberValues * numberClasses; k++)
+			total += appearance[k];
+		return total;
+	}
+
+	/**
+	 * Candidate cut point between distinct values (or bins) i and i+1.
+	 */
+	public double midpoint(int i)
+	{
+		return ((upperValues == null ? values[i] : upperValues[i]) + values[i+1]) / 2;
+	}
+
+	/**
+	 * Whether the class distribution changes between distinct values (or bins) i and i+1,
+	 * that is, unless both hold instances of one and the same class only.
+	 */
+	public boolean isBoundary(int i)
+	{
+		int classValue = pureClass(i);
+		return classValue < 0 || classValue != pureClass(i + 1);
+	}
+
+	// Only class taking value i, or -1 if there are several
+	private int pureClass(int i)
+	{
+		int classValue = -1;
+
+		for (int c = 0; c < numberClasses; c++)
+		{
+			if (appearance[i*numberClasses + c] == 0) continue;
+			if (classValue >= 0) return -1;
+			classValue = c;
+		}
+
+		return classValue;
+	}
+
+	public double minimum()
+	{
+		return values[0];
+	}
+
+	public double maximum()
+	{
+		return upperValues == null ? values[numberValues-1] : upperValues[numberValues-1];
+	}
+}
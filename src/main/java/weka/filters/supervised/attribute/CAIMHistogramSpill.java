@@ -0,0 +1,170 @@
+package weka.filters.supervised.attribute;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Builds the histogram of an attribute too large to sort on the heap at once.
+ * The rows are read in chunks; each chunk is sorted and counted into a run,
+ * which is written to a memory-mapped temporary file. The runs are then k-way
+ * merged from the file, as CAIMHistogram.buildSharded merges its shards, so
+ * the heap holds one chunk and the merged histogram rather than the column.
+ * The merge runs twice, first to count the distinct values, so that the
+ * histogram is allocated once at its exact size.
+ */
+class CAIMHistogramSpill
+{
+	private CAIMHistogramSpill()
+	{
+	}
+
+	/**
+	 * Histogram of a column of data, as CAIMHistogram.build, sorting at most chunkRows rows at a time.
+	 */
+	public static CAIMHistogram build(Instances data, int column, int classIndex, int numberClasses, int chunkRows)
+	{
+		int numberInstances = data.numInstances();
+		// A run of a chunk must fit in one mapping
+		chunkRows = (int) Math.max(1, Math.min(Math.min(chunkRows, numberInstances), (Integer.MAX_VALUE - 8) / (8 + 4L * numberClasses)));
+
+		Path file = null;
+		try
+		{
+			file = Files.createTempFile("caim", ".spill");
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE))
+			{
+				double[] attributeValues = new double[chunkRows];
+				int[] classValues = new int[chunkRows];
+				ArrayList<DoubleBuffer> runValues = new ArrayList<DoubleBuffer>();
+				ArrayList<IntBuffer> runCounts = new ArrayList<IntBuffer>();
+				long offset = 0;
+
+				for (int from = 0; from < numberInstances; from += chunkRows)
+				{
+					int to = Math.min(numberInstances, from + chunkRows);
+					int length = 0;
+					for (int i = from; i < to; i++)
+					{
+						Instance instance = data.instance(i);
+						double value = instance.value(column);
+						double classValue = instance.value(classIndex);
+						if (Utils.isMissingValue(value) || Utils.isMissingValue(classValue)) continue;
+						attributeValues[length] = value;
+						classValues[length] = (int) classValue;
+						length++;
+					}
+					if (length == 0) continue;
+
+					CAIMHistogram run = CAIMHistogram.build(attributeValues, classValues, length, numberClasses);
+					long size = 8L * run.numberValues + 4L * run.numberValues * numberClasses;
+					MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, offset, size);
+					buffer.order(ByteOrder.nativeOrder());
+					DoubleBuffer values = buffer.asDoubleBuffer();
+					values.put(run.values, 0, run.numberValues);
+					buffer.position(8 * run.numberValues);
+					IntBuffer counts = buffer.slice().order(ByteOrder.nativeOrder()).asIntBuffer();
+					counts.put(run.appearance, 0, run.numberValues * numberClasses);
+
+					runValues.add(values.limit(run.numberValues));
+					runCounts.add(counts);
+					offset += size;
+				}
+
+				return merge(runValues, runCounts, numberClasses);
+			}
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException("Spilling attribute " + data.attribute(column).name(), e);
+		}
+		finally
+		{
+			// A file still mapped cannot be deleted on some systems
+			if (file != null && !file.toFile().delete()) file.toFile().deleteOnExit();
+		}
+	}
+
+	// Merges the runs in two passes, the first counting the distinct values so the histogram is allocated at its exact size
+	private static CAIMHistogram merge(ArrayList<DoubleBuffer> runValues, ArrayList<IntBuffer> runCounts, int numberClasses)
+	{
+		int numberValues = merge(runValues, runCounts, numberClasses, null, null);
+		double[] values = new double[numberValues];
+		int[] appearance = new int[numberValues * numberClasses];
+		merge(runValues, runCounts, numberClasses, values, appearance);
+
+		return new CAIMHistogram(values, numberValues, numberClasses, appearance);
+	}
+
+	// Merges the runs through a heap of runs keyed by their next value, into values and appearance unless null; returns the distinct values
+	private static int merge(ArrayList<DoubleBuffer> runValues, ArrayList<IntBuffer> runCounts, int numberClasses, double[] values, int[] appearance)
+	{
+		int numberRuns = runValues.size();
+		int[] position = new int[numberRuns];
+		int[] heap = new int[numberRuns];
+		int heapSize = 0;
+
+		for (int r = 0; r < numberRuns; r++)
+			heap[heapSize++] = r;
+		for (int i = heapSize / 2 - 1; i >= 0; i--)
+			siftDown(heap, i, heapSize, runValues, position);
+
+		int numberValues = 0;
+		double last = 0;
+
+		while (heapSize > 0)
+		{
+			int r = heap[0];
+			double value = runValues.get(r).get(position[r]);
+
+			if (numberValues == 0 || Double.compare(last, value) != 0)
+			{
+				if (values != null) values[numberValues] = value;
+				numberValues++;
+				last = value;
+			}
+
+			if (appearance != null)
+			{
+				IntBuffer counts = runCounts.get(r);
+				int source = position[r] * numberClasses, target = (numberValues - 1) * numberClasses;
+				for (int c = 0; c < numberClasses; c++)
+					appearance[target + c] += counts.get(source + c);
+			}
+
+			if (++position[r] == runValues.get(r).limit()) heap[0] = heap[--heapSize];
+			siftDown(heap, 0, heapSize, runValues, position);
+		}
+
+		return numberValues;
+	}
+
+	private static void siftDown(int[] heap, int root, int heapSize, ArrayList<DoubleBuffer> runValues, int[] position)
+	{
+		while (2 * root + 1 < heapSize)
+		{
+			int child = 2 * root + 1;
+			if (child + 1 < heapSize && Double.compare(next(runValues, position, heap[child+1]), next(runValues, position, heap[child])) < 0) child++;
+			if (Double.compare(next(runValues, position, heap[root]), next(runValues, position, heap[child])) <= 0) return;
+			int run = heap[root]; heap[root] = heap[child]; heap[child] = run;
+			root = child;
+		}
+	}
+
+	private static double next(ArrayList<DoubleBuffer> runValues, int[] position, int run)
+	{
+		return runValues.get(run).get(position[run]);
+	}
+}
@@ -0,0 +1,163 @@
+package weka.filters.supervised.attribute;
+
+import java.util.PriorityQueue;
+
+/**
+ * Greedy CAIM search that caches the best split of every current interval.
+ * Adding a cut only changes the CAIM term of the interval it splits (the
+ * 1/(n+1) normaliser is shared by all candidates), so the best candidate
+ * overall is the one with the largest term gain over its own interval.
+ * Intervals wait in a priority queue keyed by that gain, and after a split
+ * only the two new intervals are scanned.
+ *
+ * The gain ranking is exact up to floating point rounding, so on exact ties
+ * the chosen cut can differ from the full rescan of CAIMEvaluator.
+ */
+class CAIMIntervalSearch
+{
+	private static class Interval
+	{
+		// Lower boundary, value index range [left, right) and remaining candidates [from, to)
+		double lower;
+		int left, right;
+		int from, to;
+		double term;
+
+		int best = -1;
+		double gain;
+
+		Interval next;
+	}
+
+	private final CAIMEvaluator evaluator;
+	private final double upper;
+	private final Interval first;
+	private final PriorityQueue<Interval> queue;
+	private int numberIntervals = 1;
+	private long candidatesEvaluated;
+
+	public CAIMIntervalSearch(CAIMEvaluator evaluator, double lower, double upper)
+	{
+		this.evaluator = evaluator;
+		this.upper = upper;
+		this.queue = new PriorityQueue<Interval>((a, b) -> {
+			int cmp = Double.compare(b.gain, a.gain);
+			return cmp != 0 ? cmp : Integer.compare(a.best, b.best);
+		});
+
+		first = createInterval(lower, evaluator.lowerIndex(lower), evaluator.upperIndex(upper), 0, evaluator.numberCandidates());
+	}
+
+	public boolean hasCandidates()
+	{
+		return !queue.isEmpty();
+	}
+
+	/**
+	 * CAIM value of the scheme after the best remaining split.
+	 */
+	public double bestCAIM()
+	{
+		Interval target = queue.peek();
+		double CAIMvalue = 0;
+
+		for (Interval interval = first; interval != null; interval = interval.next)
+		{
+			if (interval == target)
+			{
+				CAIMvalue += evaluator.term(interval.left, evaluator.candidateUpper(interval.best));
+				CAIMvalue += evaluator.term(evaluator.candidateLower(interval.best), interval.right);
+			}
+			else
+				CAIMvalue += interval.term;
+		}
+
+		return CAIMvalue / (numberIntervals + 1);
+	}
+
+	/**
+	 * Adds the best remaining split to the scheme.
+	 */
+	public void split()
+	{
+		Interval interval = queue.poll();
+		int cut = interval.best;
+
+		Interval right = createInterval(evaluator.candidate(cut), evaluator.candidateLower(cut), interval.right, cut + 1, interval.to);
+		right.next = interval.next;
+
+		interval.right = evaluator.candidateUpper(cut);
+		interval.to = cut;
+		interval.term = evaluator.term(interval.left, interval.right);
+		interval.next = right;
+		scan(interval);
+
+		numberIntervals++;
+	}
+
+	/**
+	 * Candidates scored so far, over all interval scans.
+	 */
+	public long candidatesEvaluated()
+	{
+		return candidatesEvaluated;
+	}
+
+	public int numberBoundaries()
+	{
+		return numberIntervals + 1;
+	}
+
+	/**
+	 * Sorted boundaries of the current scheme, including both end points.
+	 */
+	public double[] boundaries()
+	{
+		double[] boundaries = new double[numberIntervals + 1];
+		int i = 0;
+
+		for (Interval interval = first; interval != null; interval = interval.next)
+			boundaries[i++] = interval.lower;
+		boundaries[i] = upper;
+
+		return boundaries;
+	}
+
+	private Interval createInterval(double lower, int left, int right, int from, int to)
+	{
+		Interval interval = new Interval();
+		interval.lower = lower;
+		interval.left = left;
+		interval.right = right;
+		interval.from = from;
+		interval.to = to;
+		interval.term = evaluator.term(left, right);
+		scan(interval);
+		return interval;
+	}
+
+	// Finds the best split of the interval and queues it if it has one
+	private void scan(Interval interval)
+	{
+		interval.best = -1;
+		double bestTerms = 0;
+		candidatesEvaluated += interval.to - interval.from;
+
+		for (int i = interval.from; i < interval.to; i++)
+		{
+			double terms = evaluator.term(interval.left, evaluator.candidateUpper(i)) + evaluator.term(evaluator.candidateLower(i), interval.right);
+
+			if (interval.best == -1 ? !Double.isNaN(terms) : terms > bestTerms)
+			{
+				bestTerms = terms;
+				interval.best = i;
+			}
+		}
+
+		if (interval.best != -1)
+		{
+			interval.gain = bestTerms - interval.term;
+			queue.add(interval);
+		}
+	}
+}
@@ -0,0 +1,239 @@
+package weka.filters.supervised.attribute;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Pure Java version of the CAIM search in gpu.cu, used by CAIMGPU when the
+ * native library or a CUDA device is missing. It runs the same per-midpoint
+ * computation as the computeCAIMValues kernel over the flattened
+ * appearance[value*numberClasses + class] layout, in float arithmetic, and
+ * picks and inserts midpoints the same way, so it returns the same cut points.
+ *
+ * Class counts of an interval are differences of cumulative counts rather
+ * than a loop over its values, and the class loops are plain int array loops
+ * that the JIT vectorises. Large midpoint sets are scored in parallel.
+ */
+class CAIMKernelCPU
+{
+	// Fewest midpoints worth scoring in parallel
+	private static final int PARALLEL_THRESHOLD = 4096;
+
+	private final int numberClasses;
+	private final int numberValues;
+	private final float[] values;
+	private final float[] midpoints;
+
+	// cumulative[i*numberClasses + c] = instances of class c among values[0..i)
+	private final int[] cumulative;
+
+	// Current scheme as in gpu.cu: first value index of each interval, followed by numberValues-1
+	private int[] intervals;
+	private int numberIntervals;
+	private float[] intervalCAIM;
+	private boolean[] boundary;
+
+	private final float[] caimValues;
+
+	private CAIMKernelCPU(float[] values, int numberValues, int[] appearance, int numberClasses)
+	{
+		this.numberClasses = numberClasses;
+		this.numberValues = numberValues;
+		this.values = values;
+		this.cumulative = new int[(numberValues + 1) * numberClasses];
+
+		for (int k = 0; k < numberValues * numberClasses; k++)
+			cumulative[k + numberClasses] = cumulative[k] + appearance[k];
+
+		midpoints = new float[numberValues - 1];
+		for (int i = 0; i < numberValues - 1; i++)
+			midpoints[i] = (values[i] + values[i+1]) / 2.0f;
+
+		caimValues = new float[numberValues - 1];
+		intervals = new int[numberValues + 1];
+		intervalCAIM = new float[numberValues];
+		boundary = new boolean[numberValues];
+	}
+
+	/**
+	 * Discretizes one attribute, returning its sorted cut points including both end points.
+	 * Instances with a missing attribute value are ignored. Matches CAIMGPUBackend.
+	 */
+	public static float[] discretize(FloatBuffer attributeValues, IntBuffer classValues, int numberInstances, int numberClasses, int attribute)
+	{
+		double[] keys = new double[numberInstances];
+		int[] classes = new int[numberInstances];
+		int length = 0;
+
+		for (int i = 0; i < numberInstances; i++)
+		{
+			float value = attributeValues.get(i);
+			if (Float.isNaN(value)) continue;
+			keys[length] = value;
+			classes[length] = classValues.get(i);
+			length++;
+		}
+
+		if (length == 0) return new float[0];
+
+		CAIMSort.sortByKey(keys, classes, 0, length);
+
+		// Deduplicate into the flattened appearance matrix, as the host loop in gpu.cu
+		float[] values = new float[length];
+		int[] appearance = new int[length * numberClasses];
+		float currentValue = (float) keys[0];
+		int offset = 0;
+		values[0] = currentValue;
+
+		for (int i = 0; i < length; i++)
+		{
+			if (currentValue != (float) keys[i])
+			{
+				offset++;
+				currentValue = (float) keys[i];
+				values[offset] = currentValue;
+			}
+
+			appearance[offset*numberClasses + classes[i]]++;
+		}
+
+		return new CAIMKernelCPU(values, offset + 1, appearance, numberClasses).search();
+	}
+
+	private float[] search()
+	{
+		int numberMidpoints = numberValues - 1;
+		int remaining = numberMidpoints;
+		int iteration = 1;
+		float globalCAIM = 0.0f;
+
+		intervals[0] = 0;
+		intervals[1] = numberValues - 1;
+		numberIntervals = 2;
+
+		while (numberMidpoints > 0)
+		{
+			computeCAIMValues();
+
+			int bestMidpoint = -1;
+			float bestCAIM = -1;
+
+			for (int i = 0; i < numberMidpoints; i++)
+			{
+				if (caimValues[i] > bestCAIM)
+				{
+					bestCAIM = caimValues[i];
+					bestMidpoint = i;
+				}
+			}
+
+			if (bestMidpoint == -1) break;
+
+			if (bestCAIM > globalCAIM || iteration < numberClasses)
+			{
+				globalCAIM = bestCAIM;
+
+				int insert = 0;
+				while (intervals[insert] < bestMidpoint + 1) insert++;
+				System.arraycopy(intervals, insert, intervals, insert + 1, numberIntervals - insert);
+				intervals[insert] = bestMidpoint + 1;
+
+				iteration++;
+				numberIntervals++;
+				remaining--;
+			}
+			else
+				break;
+
+			if (remaining == 0) break;
+		}
+
+		float[] scheme = new float[numberIntervals];
+		scheme[0] = values[0];
+		for (int i = 1; i < numberIntervals - 1; i++)
+			scheme[i] = midpoints[intervals[i] - 1];
+		scheme[numberIntervals - 1] = values[numberValues - 1];
+
+		return scheme;
+	}
+
+	// Fills caimValues for every midpoint, as the computeCAIMValues kernel
+	private void computeCAIMValues()
+	{
+		int count = numberIntervals - 1;
+
+		Arrays.fill(boundary, false);
+		for (int k = 0; k < count; k++)
+		{
+			intervalCAIM[k] = calculate(intervals[k], k == count - 1 ? intervals[k+1] + 1 : intervals[k+1]);
+			boundary[intervals[k]] = true;
+		}
+
+		int numberMidpoints = numberValues - 1;
+
+		if (numberMidpoints >= PARALLEL_THRESHOLD)
+			IntStream.range(0, numberMidpoints).parallel().forEach(this::computeCAIMValue);
+		else
+			for (int midPoint = 0; midPoint < numberMidpoints; midPoint++)
+				computeCAIMValue(midPoint);
+	}
+
+	private void computeCAIMValue(int midPoint)
+	{
+		int count = numberIntervals - 1;
+
+		// Midpoint already in the scheme
+		if (boundary[midPoint + 1])
+		{
+			caimValues[midPoint] = 0.0f;
+			return;
+		}
+
+		// Interval holding the midpoint: last k with intervals[k] <= midPoint
+		int low = 0, high = count - 1;
+		while (low < high)
+		{
+			int mid = (low + high + 1) >>> 1;
+			if (intervals[mid] <= midPoint) low = mid; else high = mid - 1;
+		}
+		int split = low;
+		int right = split == count - 1 ? intervals[split+1] + 1 : intervals[split+1];
+
+		float CAIMValue = 0.0f;
+
+		for (int k = 0; k < count; k++)
+		{
+			if (k == split)
+			{
+				CAIMValue += calculate(intervals[k], midPoint + 1);
+				CAIMValue += calculate(midPoint + 1, right);
+			}
+			else
+				CAIMValue += intervalCAIM[k];
+		}
+
+		caimValues[midPoint] = CAIMValue / (float) (count + 1);
+	}
+
+	// CAIM term of the values [left, right), as calculate() in gpu.cu
+	private float calculate(int left, int right)
+	{
+		int from = left * numberClasses;
+		int to = right * numberClasses;
+		int columnMax = 0, suma = 0;
+
+		for (int j = 0; j < numberClasses; j++)
+		{
+			int columnSum = cumulative[to + j] - cumulative[from + j];
+			suma += columnSum;
+			columnMax = Math.max(columnMax, columnSum);
+		}
+
+		float res = columnMax / (float) suma;
+		res = res * columnMax;
+
+		return res;
+	}
+}
@@ -0,0 +1,154 @@
+package weka.filters.supervised.attribute;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Metrics listener that keeps the last run and running totals and publishes
+ * them as an MXBean named weka.filters.supervised.attribute:type=CAIMMetrics.
+ * CAIMCPU reports to it with the -J option. Attributes of runs that overlap
+ * in time are attributed to the run that finishes first.
+ */
+public class CAIMMetrics implements CAIMMetricsMXBean, CAIMMetricsListener
+{
+	public static final String OBJECT_NAME = "weka.filters.supervised.attribute:type=CAIMMetrics";
+
+	private static CAIMMetrics registered;
+
+	private long runs;
+	private long attributesDiscretized;
+	private long totalRunNanos;
+
+	private CAIMRunMetrics lastRun;
+	private ArrayList<CAIMAttributeMetrics> current = new ArrayList<CAIMAttributeMetrics>();
+	private ArrayList<CAIMAttributeMetrics> last = new ArrayList<CAIMAttributeMetrics>();
+
+	/**
+	 * Instance registered with the platform MBean server, created on first use.
+	 */
+	public static synchronized CAIMMetrics registered()
+	{
+		if (registered == null)
+		{
+			registered = new CAIMMetrics();
+			try
+			{
+				ManagementFactory.getPlatformMBeanServer().registerMBean(registered, new ObjectName(OBJECT_NAME));
+			}
+			catch (JMException e)
+			{
+				throw new IllegalStateException("Could not register " + OBJECT_NAME, e);
+			}
+		}
+
+		return registered;
+	}
+
+	public synchronized void attributeDiscretized(CAIMAttributeMetrics metrics)
+	{
+		current.add(metrics);
+		attributesDiscretized++;
+	}
+
+	public synchronized void runFinished(CAIMRunMetrics metrics)
+	{
+		runs++;
+		totalRunNanos += metrics.totalNanos;
+		lastRun = metrics;
+		last = current;
+		current = new ArrayList<CAIMAttributeMetrics>();
+	}
+
+	public synchronized long getRuns()
+	{
+		return runs;
+	}
+
+	public synchronized long getAttributesDiscretized()
+	{
+		return attributesDiscretized;
+	}
+
+	public synchronized double getTotalRunMillis()
+	{
+		return totalRunNanos / 1e6;
+	}
+
+	public synchronized double getLastRunMillis()
+	{
+		return lastRun == null ? 0 : lastRun.totalNanos / 1e6;
+	}
+
+	public synchronized double getLastExtractionMillis()
+	{
+		return lastRun == null ? 0 : lastRun.extractionNanos / 1e6;
+	}
+
+	public synchronized double getLastSortMillis()
+	{
+		return lastRun == null ? 0 : lastRun.sortNanos / 1e6;
+	}
+
+	public synchronized double getLastSearchMillis()
+	{
+		return lastRun == null ? 0 : lastRun.searchNanos / 1e6;
+	}
+
+	public synchronized double getLastConversionMillis()
+	{
+		return lastRun == null ? 0 : lastRun.conversionNanos / 1e6;
+	}
+
+	public synchronized double getLastUtilisation()
+	{
+		return lastRun == null ? 0 : lastRun.getUtilisation();
+	}
+
+	public synchronized int getLastMaxQueueDepth()
+	{
+		return lastRun == null ? -1 : lastRun.maxQueueDepth;
+	}
+
+	public synchronized double getLastQueueWaitMillis()
+	{
+		return lastRun == null ? 0 : lastRun.queueWaitNanos / 1e6;
+	}
+
+	public synchronized String getLastSlowestAttribute()
+	{
+		CAIMAttributeMetrics slowest = slowest();
+		return slowest == null ? "" : slowest.name;
+	}
+
+	public synchronized double getLastSlowestAttributeMillis()
+	{
+		CAIMAttributeMetrics slowest = slowest();
+		return slowest == null ? 0 : slowest.getTotalNanos() / 1e6;
+	}
+
+	public synchronized int getLastSlowestAttributeDistinctValues()
+	{
+		CAIMAttributeMetrics slowest = slowest();
+		return slowest == null ? -1 : slowest.distinctValues;
+	}
+
+	public synchronized String[] getLastAttributes()
+	{
+		String[] lines = new String[last.size()];
+		for (int i = 0; i < lines.length; i++)
+			lines[i] = last.get(i).toString();
+		return lines;
+	}
+
+	private CAIMAttributeMetrics slowest()
+	{
+		CAIMAttributeMetrics slowest = null;
+		for (CAIMAttributeMetrics metrics : last)
+			if (slowest == null || metrics.getTotalNanos() > slowest.getTotalNanos())
+				slowest = metrics;
+		return slowest;
+	}
+}
@@ -0,0 +1,22 @@
+package weka.filters.supervised.attribute;
+
+/**
+ * Receives the measurements of CAIMCPU and CAIMGPU runs. attributeDiscretized
+ * is called from the worker threads as each attribute finishes, runFinished
+ * from the thread running batchFinished, and workerFailed from the coordinator
+ * threads when a CAIMWorker fails or times out.
+ */
+public interface CAIMMetricsListener
+{
+	void attributeDiscretized(CAIMAttributeMetrics metrics);
+
+	void runFinished(CAIMRunMetrics metrics);
+
+	/**
+	 * A worker of a run with -W failed, or stayed silent past the idle timeout, and its
+	 * shard was rescheduled on the other workers.
+	 */
+	default void workerFailed(String worker, boolean timedOut, Exception cause)
+	{
+	}
+}
@@ -0,0 +1,43 @@
+package weka.filters.supervised.attribute;
+
+/**
+ * JMX view of the CAIM runs of a JVM, published by CAIMMetrics.
+ */
+public interface CAIMMetricsMXBean
+{
+	long getRuns();
+
+	long getAttributesDiscretized();
+
+	double getTotalRunMillis();
+
+	double getLastRunMillis();
+
+	double getLastExtractionMillis();
+
+	double getLastSortMillis();
+
+	double getLastSearchMillis();
+
+	double getLastConversionMillis();
+
+	double getLastUtilisation();
+
+	int getLastMaxQueueDepth();
+
+	double getLastQueueWaitMillis();
+
+	/**
+	 * Attribute of the last run with the longest extraction, sort and search time.
+	 */
+	String getLastSlowestAttribute();
+
+	double getLastSlowestAttributeMillis();
+
+	int getLastSlowestAttributeDistinctValues();
+
+	/**
+	 * One line per attribute of the last run.
+	 */
+	String[] getLastAttributes();
+}
@@ -0,0 +1,10 @@
+package weka.filters.supervised.attribute;
+
+/**
+ * Receives progress of a CAIMCPU or CAIMGPU batch, one call per discretized
+ * attribute. Calls come from the worker threads, in completion order.
+ */
+public interface CAIMProgressListener
+{
+	void attributeDiscretized(int attribute, int completed, int total);
+}
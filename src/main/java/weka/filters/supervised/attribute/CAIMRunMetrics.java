@@ -0,0 +1,164 @@
+package weka.filters.supervised.attribute;
+
+/**
+ * Measurements of one batchFinished run of CAIMCPU or CAIMGPU. Times are in
+ * nanoseconds. Busy time against wall time and pool parallelism tells a run
+ * slowed by contention for the pool from one slowed by its data.
+ */
+public class CAIMRunMetrics
+{
+	final String filter;
+	final int instances;
+	final int attributes;
+
+	long totalNanos;
+	long schedulingNanos;
+	long conversionNanos;
+
+	long extractionNanos;
+	long sortNanos;
+	long searchNanos;
+
+	long busyNanos;
+	int parallelism;
+	int maxQueueDepth = -1;
+	long queueWaitNanos;
+
+	int workerFailures;
+	int workerTimeouts;
+	int rescheduledShards;
+
+	CAIMRunMetrics(String filter, int instances, int attributes)
+	{
+		this.filter = filter;
+		this.instances = instances;
+		this.attributes = attributes;
+	}
+
+	public String getFilter()
+	{
+		return filter;
+	}
+
+	public int getInstances()
+	{
+		return instances;
+	}
+
+	/**
+	 * Attributes discretized.
+	 */
+	public int getAttributes()
+	{
+		return attributes;
+	}
+
+	public long getTotalNanos()
+	{
+		return totalNanos;
+	}
+
+	/**
+	 * Wall time from submitting the attribute jobs to the last one finishing.
+	 */
+	public long getSchedulingNanos()
+	{
+		return schedulingNanos;
+	}
+
+	/**
+	 * Converting and pushing the input instances.
+	 */
+	public long getConversionNanos()
+	{
+		return conversionNanos;
+	}
+
+	/**
+	 * Sums over the attributes of the CAIMAttributeMetrics times.
+	 */
+	public long getExtractionNanos()
+	{
+		return extractionNanos;
+	}
+
+	public long getSortNanos()
+	{
+		return sortNanos;
+	}
+
+	public long getSearchNanos()
+	{
+		return searchNanos;
+	}
+
+	/**
+	 * Time the attribute jobs ran, summed over the pool threads.
+	 */
+	public long getBusyNanos()
+	{
+		return busyNanos;
+	}
+
+	public int getParallelism()
+	{
+		return parallelism;
+	}
+
+	/**
+	 * Share of the time of the usable pool threads, at most one per attribute, spent on
+	 * attribute jobs while they were scheduled.
+	 */
+	public double getUtilisation()
+	{
+		return schedulingNanos == 0 || parallelism == 0 ? 0 : busyNanos / ((double) schedulingNanos * Math.min(parallelism, attributes));
+	}
+
+	/**
+	 * Most tasks seen waiting in the pool queue when an attribute job started, -1 if the pool does not tell.
+	 */
+	public int getMaxQueueDepth()
+	{
+		return maxQueueDepth;
+	}
+
+	/**
+	 * Time attribute jobs waited between submission and start, summed, including waits for the memory budget.
+	 */
+	public long getQueueWaitNanos()
+	{
+		return queueWaitNanos;
+	}
+
+	/**
+	 * CAIMWorkers that failed or timed out during the run, with -W.
+	 */
+	public int getWorkerFailures()
+	{
+		return workerFailures;
+	}
+
+	/**
+	 * Of the worker failures, those where the worker stayed silent past the idle timeout.
+	 */
+	public int getWorkerTimeouts()
+	{
+		return workerTimeouts;
+	}
+
+	/**
+	 * Shards put back in the queue for the other workers after their worker failed.
+	 */
+	public int getRescheduledShards()
+	{
+		return rescheduledShards;
+	}
+
+	public String toString()
+	{
+		return filter + ": " + attributes + " attributes of " + instances + " instances in " + totalNanos / 1000000.0 + " ms (scheduling "
+				+ schedulingNanos / 1000000.0 + " ms, conversion " + conversionNanos / 1000000.0 + " ms), utilisation "
+				+ getUtilisation() + " of " + parallelism + " threads, max queue depth " + maxQueueDepth
+				+ (workerFailures > 0 ? ", " + workerFailures + " worker failures (" + workerTimeouts + " timed out, " + rescheduledShards + " shards rescheduled)" : "");
+	}
+}
@@ -0,0 +1,260 @@
+package weka.filters.supervised.attribute;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Runs the per-attribute discretization jobs of one batch, most expensive
+ * first, so that a large attribute does not start last and hold up the end
+ * of the batch. The cost of an attribute is its distinct value count times
+ * the number of classes. Jobs run on a caller-supplied executor or a shared
+ * work-stealing pool, and the results are collected on the calling thread.
+ *
+ * With a memory budget, a job starts only once its estimated footprint fits
+ * beside those of the running jobs. Jobs are admitted in the order they reach
+ * the pool, and a job larger than the whole budget runs alone.
+ */
+class CAIMScheduler
+{
+	// Rows sampled to estimate the distinct value count of an attribute
+	private static final int SAMPLE = 4096;
+
+	private static ExecutorService shared;
+
+	private final ExecutorService executor;
+	private final CAIMProgressListener listener;
+	private final long deadline;
+	private final AtomicBoolean cancelled;
+
+	// Kilobytes of footprint the running jobs may hold together, null for no limit
+	private Semaphore memory;
+	private int memoryKilobytes;
+
+	// Measurements of the last run
+	private final AtomicLong busyNanos = new AtomicLong();
+	private final AtomicLong queueWaitNanos = new AtomicLong();
+	private final AtomicInteger maxQueueDepth = new AtomicInteger(-1);
+	private long wallNanos;
+
+	/**
+	 * deadline is a System.currentTimeMillis() time, or 0 for none. Jobs are expected to
+	 * stop early, throwing CancellationException, once cancelled is set.
+	 */
+	public CAIMScheduler(ExecutorService executor, CAIMProgressListener listener, long deadline, AtomicBoolean cancelled)
+	{
+		this.executor = executor != null ? executor : shared();
+		this.listener = listener;
+		this.deadline = deadline;
+		this.cancelled = cancelled;
+	}
+
+	/**
+	 * Limits the estimated footprints of the jobs running at once to the given bytes, 0 for no limit.
+	 */
+	public void setMemoryBudget(long bytes)
+	{
+		memoryKilobytes = (int) Math.min(Integer.MAX_VALUE, (bytes + 1023) / 1024);
+		memory = bytes > 0 ? new Semaphore(memoryKilobytes, true) : null;
+	}
+
+	// Work-stealing pool shared by all filters without an executor of their own
+	private static synchronized ExecutorService shared()
+	{
+		if (shared == null)
+			shared = Executors.newWorkStealingPool();
+		return shared;
+	}
+
+	/**
+	 * Estimates the distinct values of a numeric attribute from a strided sample of rows,
+	 * with the GEE estimator: singletons of the sample are scaled by sqrt(rows/sample).
+	 */
+	public static double estimateDistinct(Instances data, int attribute)
+	{
+		int[] counts = sampleCounts(data, attribute);
+		if (counts[0] == 0) return 0;
+		return Math.sqrt((double) data.numInstances() / counts[0]) * counts[1] + counts[2];
+	}
+
+	/**
+	 * A high estimate of the distinct values of a numeric attribute, for sizing memory: the
+	 * fraction of singletons in the sample scaled to all rows, or the GEE estimate if larger.
+	 * GEE underestimates columns of mostly distinct values by up to sqrt(rows/sample).
+	 */
+	public static double estimateDistinctHigh(Instances data, int attribute)
+	{
+		int[] counts = sampleCounts(data, attribute);
+		if (counts[0] == 0) return 0;
+		double scaled = (double) data.numInstances() * counts[1] / counts[0] + counts[2];
+		return Math.min(data.numInstances(), Math.max(scaled, Math.sqrt((double) data.numInstances() / counts[0]) * counts[1] + counts[2]));
+	}
+
+	// Known values in a strided sample of rows, then the values seen once and more than once
+	private static int[] sampleCounts(Instances data, int attribute)
+	{
+		int numberInstances = data.numInstances();
+		int step = Math.max(1, numberInstances / SAMPLE);
+		double[] sample = new double[Math.min(numberInstances, SAMPLE + 1)];
+		int length = 0;
+
+		for (int i = 0; i < numberInstances && length < sample.length; i += step)
+		{
+			double value = data.instance(i).value(attribute);
+			if (!Utils.isMissingValue(value)) sample[length++] = value;
+		}
+
+		Arrays.sort(sample, 0, length);
+
+		int singletons = 0, repeated = 0;
+		for (int i = 0, j; i < length; i = j)
+		{
+			for (j = i + 1; j < length && Double.compare(sample[i], sample[j]) == 0; j++);
+			if (j - i == 1) singletons++; else repeated++;
+		}
+
+		return new int[] { length, singletons, repeated };
+	}
+
+	/**
+	 * Runs job.apply(attributes[k]) for every k in decreasing order of costs[k] and returns
+	 * the results in the order of attributes. Throws TimeoutException once the deadline
+	 * passes and CancellationException if cancelled, after stopping the remaining jobs.
+	 */
+	public <T> ArrayList<T> run(int[] attributes, double[] costs, IntFunction<T> job) throws Exception
+	{
+		return run(attributes, costs, null, job);
+	}
+
+	/**
+	 * As run, admitting each job under the memory budget with footprints[k] bytes.
+	 */
+	public <T> ArrayList<T> run(int[] attributes, double[] costs, long[] footprints, IntFunction<T> job) throws Exception
+	{
+		int total = attributes.length;
+		Integer[] order = new Integer[total];
+		for (int k = 0; k < total; k++) order[k] = k;
+		Arrays.sort(order, (a, b) -> Double.compare(costs[b], costs[a]));
+
+		AtomicInteger completed = new AtomicInteger();
+		ArrayList<Future<T>> futures = new ArrayList<Future<T>>(total);
+		for (int k = 0; k < total; k++) futures.add(null);
+
+		long start = System.nanoTime();
+
+		for (int k : order)
+		{
+			int attribute = attributes[k];
+			int permits = memory == null || footprints == null ? 0 : (int) Math.max(1, Math.min(memoryKilobytes, (footprints[k] + 1023) / 1024));
+			long submitted = System.nanoTime();
+			futures.set(k, executor.submit(() -> {
+				maxQueueDepth.accumulateAndGet(queueDepth(), Math::max);
+				if (permits > 0) memory.acquire(permits);
+				try
+				{
+					long started = System.nanoTime();
+					queueWaitNanos.addAndGet(started - submitted);
+					if (cancelled.get()) throw new CancellationException();
+					T result = job.apply(attribute);
+					busyNanos.addAndGet(System.nanoTime() - started);
+					if (listener != null) listener.attributeDiscretized(attribute, completed.incrementAndGet(), total);
+					return result;
+				}
+				finally
+				{
+					if (permits > 0) memory.release(permits);
+				}
+			}));
+		}
+
+		ArrayList<T> results = new ArrayList<T>(total);
+		try
+		{
+			for (int k : order)
+			{
+				Future<T> future = futures.get(k);
+				if (deadline > 0)
+					future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+				else
+					future.get();
+			}
+
+			for (int k = 0; k < total; k++)
+				results.add(futures.get(k).get());
+
+			wallNanos = System.nanoTime() - start;
+		}
+		catch (TimeoutException e)
+		{
+			stop(futures);
+			throw new TimeoutException("Deadline passed before all attributes were discretized");
+		}
+		catch (ExecutionException e)
+		{
+			stop(futures);
+			if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+			throw e;
+		}
+		catch (Exception e)
+		{
+			stop(futures);
+			throw e;
+		}
+
+		return results;
+	}
+
+	/**
+	 * Adds the pool measurements of the last run to the run metrics.
+	 */
+	public void report(CAIMRunMetrics metrics)
+	{
+		metrics.schedulingNanos = wallNanos;
+		metrics.busyNanos = busyNanos.get();
+		metrics.queueWaitNanos = queueWaitNanos.get();
+		metrics.maxQueueDepth = maxQueueDepth.get();
+		metrics.parallelism = parallelism();
+	}
+
+	// Tasks waiting in the pool, -1 if it does not tell
+	private int queueDepth()
+	{
+		if (executor instanceof ForkJoinPool)
+			return (int) Math.min(Integer.MAX_VALUE, ((ForkJoinPool) executor).getQueuedSubmissionCount() + ((ForkJoinPool) executor).getQueuedTaskCount());
+		if (executor instanceof ThreadPoolExecutor)
+			return ((ThreadPoolExecutor) executor).getQueue().size();
+		return -1;
+	}
+
+	private int parallelism()
+	{
+		if (executor instanceof ForkJoinPool)
+			return ((ForkJoinPool) executor).getParallelism();
+		if (executor instanceof ThreadPoolExecutor)
+			return ((ThreadPoolExecutor) executor).getMaximumPoolSize();
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	private void stop(ArrayList<? extends Future<?>> futures)
+	{
+		cancelled.set(true);
+		for (Future<?> future : futures)
+			future.cancel(false);
+	}
+}
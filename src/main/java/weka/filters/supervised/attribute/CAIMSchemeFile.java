@@ -0,0 +1,201 @@
+package weka.filters.supervised.attribute;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.List;
+
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Learned CAIM cut points in a compact binary file that is memory-mapped when
+ * read, so a trained scheme can be applied (CAIMApply) without the training
+ * data or a serialised filter. Layout, big-endian:
+ *
+ * <pre>
+ * int     magic "CAIM"
+ * int     version
+ * int     output in numeric (0 or 1)
+ * int     header length, followed by the ARFF header of the training data in UTF-8
+ *         (attribute names, types and class labels)
+ * int     number of attributes
+ * int[]   number of cut points of each attribute, -1 if it is copied unchanged
+ *         padding to a multiple of 8 bytes
+ * double[] cut points of every discretized attribute, in attribute order
+ * </pre>
+ */
+public class CAIMSchemeFile
+{
+	private static final int MAGIC = 0x4341494D;
+	private static final int VERSION = 1;
+
+	private final Instances header;
+	private final boolean outputInNumeric;
+	private final int[] numberCuts;
+	private final DoubleBuffer[] cuts;
+
+	private CAIMSchemeFile(Instances header, boolean outputInNumeric, int[] numberCuts, DoubleBuffer[] cuts)
+	{
+		this.header = header;
+		this.outputInNumeric = outputInNumeric;
+		this.numberCuts = numberCuts;
+		this.cuts = cuts;
+	}
+
+	/**
+	 * Writes the schemes of a trained filter. schemes.get(a) holds the sorted cut points of
+	 * attribute a, including both end points, and is ignored unless discretized[a].
+	 */
+	public static void write(File file, Instances header, List<? extends List<Double>> schemes, boolean[] discretized, boolean outputInNumeric) throws IOException
+	{
+		byte[] arff = new Instances(header, 0).toString().getBytes(StandardCharsets.UTF_8);
+		int numberAttributes = header.numAttributes();
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file.toPath()))))
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(outputInNumeric ? 1 : 0);
+			out.writeInt(arff.length);
+			out.write(arff);
+			out.writeInt(numberAttributes);
+
+			for (int a = 0; a < numberAttributes; a++)
+				out.writeInt(discretized[a] ? schemes.get(a).size() : -1);
+
+			while (out.size() % 8 != 0)
+				out.writeByte(0);
+
+			for (int a = 0; a < numberAttributes; a++)
+				if (discretized[a])
+					for (double cut : schemes.get(a))
+						out.writeDouble(cut);
+		}
+	}
+
+	/**
+	 * Maps a scheme file. The cut points are read from the mapping and not copied.
+	 */
+	public static CAIMSchemeFile read(File file) throws IOException
+	{
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		if (buffer.remaining() < 16 || buffer.getInt() != MAGIC)
+			throw new IOException("Not a CAIM scheme file: " + file);
+		if (buffer.getInt() != VERSION)
+			throw new IOException("Unsupported CAIM scheme file version: " + file);
+
+		boolean outputInNumeric = buffer.getInt() != 0;
+
+		byte[] arff = new byte[buffer.getInt()];
+		buffer.get(arff);
+		Instances header = new Instances(new StringReader(new String(arff, StandardCharsets.UTF_8)));
+		header.setClassIndex(header.numAttributes() - 1);
+
+		int numberAttributes = buffer.getInt();
+		if (numberAttributes != header.numAttributes())
+			throw new IOException("Corrupt CAIM scheme file: " + file);
+
+		int[] numberCuts = new int[numberAttributes];
+		for (int a = 0; a < numberAttributes; a++)
+			numberCuts[a] = buffer.getInt();
+
+		int position = (buffer.position() + 7) & ~7;
+		DoubleBuffer[] cuts = new DoubleBuffer[numberAttributes];
+
+		for (int a = 0; a < numberAttributes; a++)
+		{
+			if (numberCuts[a] < 0) continue;
+
+			ByteBuffer slice = buffer.duplicate();
+			slice.position(position).limit(position + 8 * numberCuts[a]);
+			cuts[a] = slice.slice().asDoubleBuffer();
+			position += 8 * numberCuts[a];
+		}
+
+		return new CAIMSchemeFile(header, outputInNumeric, numberCuts, cuts);
+	}
+
+	/**
+	 * Header of the training data.
+	 */
+	public Instances header()
+	{
+		return header;
+	}
+
+	public boolean outputInNumeric()
+	{
+		return outputInNumeric;
+	}
+
+	public boolean isDiscretized(int attribute)
+	{
+		return numberCuts[attribute] >= 0;
+	}
+
+	public int numberCuts(int attribute)
+	{
+		return numberCuts[attribute];
+	}
+
+	public double cut(int attribute, int i)
+	{
+		return cuts[attribute].get(i);
+	}
+
+	/**
+	 * Cut points of a discretized attribute, as a view of the mapping.
+	 */
+	public List<Double> cuts(int attribute)
+	{
+		DoubleBuffer scheme = cuts[attribute];
+		return new AbstractList<Double>()
+		{
+			public Double get(int i)
+			{
+				return scheme.get(i);
+			}
+
+			public int size()
+			{
+				return scheme.limit();
+			}
+		};
+	}
+
+	/**
+	 * Interval of a value, as CAIMConverter.interval, searched in the mapping: one less than
+	 * the number of cut points below it, clamped to the intervals. Missing if there are no cut points.
+	 */
+	public double interval(int attribute, double value)
+	{
+		DoubleBuffer scheme = cuts[attribute];
+		int size = numberCuts[attribute];
+		if (size == 0) return Utils.missingValue();
+
+		int low = 0, high = size;
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (scheme.get(mid) < value) low = mid + 1; else high = mid;
+		}
+
+		return Math.max(0, Math.min(low - 1, size - 2));
+	}
+}
@@ -0,0 +1,214 @@
+package weka.filters.supervised.attribute;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.ConverterUtils.DataSource;
+import weka.filters.Filter;
+
+/**
+ * Resident discretization server, so that repeated runs share one JVM: its
+ * loaded classes and native library, JIT-compiled code and the scheduler's
+ * work-stealing pool. It listens on the loopback interface only.
+ *
+ * <pre>
+ * POST /discretize?filter=CAIMCPU&amp;options=-R%20first-3&amp;output=schemes   (body: ARFF)
+ * GET  /discretize?path=/data/train.arff&amp;output=arff
+ * GET  /status
+ * </pre>
+ *
+ * filter is CAIMCPU (default) or CAIMGPU, options are the filter's options,
+ * and output is schemes (default), one line of cut points per discretized
+ * attribute, followed by "truncated" if its search stopped on a time budget or
+ * the interval cap, or arff, the discretized data. The class is the last attribute.
+ *
+ * Run with -p &lt;port&gt; (default 8080) and -t &lt;request threads&gt;
+ * (default the number of processors).
+ */
+public class CAIMServer
+{
+	private final HttpServer server;
+	private final ExecutorService threads;
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong busyNanos = new AtomicLong();
+
+	static
+	{
+		// Small answers would otherwise wait on the client's delayed acknowledgement
+		if (System.getProperty("sun.net.httpserver.nodelay") == null)
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	public CAIMServer(int port, int numberThreads) throws IOException
+	{
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		threads = Executors.newFixedThreadPool(numberThreads);
+		server.setExecutor(threads);
+		server.createContext("/discretize", this::discretize);
+		server.createContext("/status", this::status);
+	}
+
+	public int getPort()
+	{
+		return server.getAddress().getPort();
+	}
+
+	public void start()
+	{
+		server.start();
+	}
+
+	public void stop()
+	{
+		server.stop(0);
+		threads.shutdown();
+	}
+
+	private void discretize(HttpExchange exchange) throws IOException
+	{
+		long start = System.nanoTime();
+		requests.incrementAndGet();
+
+		try
+		{
+			HashMap<String, String> query = query(exchange.getRequestURI().getRawQuery());
+			String path = query.get("path");
+
+			Instances data = read(exchange, path);
+			data.setClassIndex(data.numAttributes() - 1);
+
+			String name = query.getOrDefault("filter", "CAIMCPU");
+			CAIMCPU filter;
+			if (name.equals("CAIMCPU")) filter = new CAIMCPU();
+			else if (name.equals("CAIMGPU")) filter = new CAIMGPU();
+			else throw new IllegalArgumentException("Unknown filter " + name);
+			filter.setOptions(Utils.splitOptions(query.getOrDefault("options", "")));
+			filter.setInputFormat(data);
+			Instances output = Filter.useFilter(data, filter);
+
+			String format = query.getOrDefault("output", "schemes");
+			String answer;
+			if (format.equals("arff")) answer = output.toString();
+			else if (format.equals("schemes")) answer = schemes(data, filter.SchemeList, filter.getTruncatedAttributes());
+			else throw new IllegalArgumentException("Unknown output " + format);
+
+			respond(exchange, 200, answer);
+		}
+		catch (Throwable e)
+		{
+			// Errors such as OutOfMemoryError are answered too, so that the client is not left waiting
+			failures.incrementAndGet();
+			respond(exchange, e instanceof IllegalArgumentException ? 400 : 500, e + "\n");
+		}
+		finally
+		{
+			exchange.close();
+			busyNanos.addAndGet(System.nanoTime() - start);
+		}
+	}
+
+	// Data of a request, from path or the POSTed ARFF body; IllegalArgumentException if there is none or it cannot be read
+	private static Instances read(HttpExchange exchange, String path)
+	{
+		Instances data;
+		try
+		{
+			if (path != null && !path.contains("://") && !new File(path).isFile())
+				throw new IllegalArgumentException("No file " + path);
+			else if (path != null)
+				data = DataSource.read(path);
+			else if (exchange.getRequestMethod().equals("POST"))
+				data = new Instances(new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)));
+			else
+				throw new IllegalArgumentException("Give a path or POST an ARFF body");
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw e;
+		}
+		catch (Exception e)
+		{
+			throw new IllegalArgumentException("Could not read " + (path != null ? path : "the ARFF body") + ": " + e.getMessage(), e);
+		}
+
+		if (data == null || data.numAttributes() == 0)
+			throw new IllegalArgumentException("No data set with attributes in " + (path != null ? path : "the ARFF body"));
+		return data;
+	}
+
+	// One line per discretized attribute: its name and its cut points, including both end points, then whether its search was truncated
+	private static String schemes(Instances data, List<? extends List<Double>> schemes, int[] truncated)
+	{
+		StringBuilder text = new StringBuilder();
+		for (int a = 0; a < schemes.size(); a++)
+		{
+			if (schemes.get(a).isEmpty()) continue;
+			text.append(data.attribute(a).name()).append(':');
+			for (double cut : schemes.get(a)) text.append(' ').append(cut);
+			if (Arrays.binarySearch(truncated, a) >= 0) text.append(" truncated");
+			text.append('\n');
+		}
+		return text.toString();
+	}
+
+	private void status(HttpExchange exchange) throws IOException
+	{
+		long count = requests.get();
+		respond(exchange, 200, "requests " + count + "\nfailures " + failures.get()
+				+ "\nmean ms " + (count == 0 ? 0 : busyNanos.get() / 1e6 / count) + "\n");
+	}
+
+	private static void respond(HttpExchange exchange, int code, String text) throws IOException
+	{
+		byte[] body = text.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(code, body.length);
+		try (OutputStream out = exchange.getResponseBody())
+		{
+			out.write(body);
+		}
+	}
+
+	private static HashMap<String, String> query(String raw)
+	{
+		HashMap<String, String> query = new HashMap<String, String>();
+		if (raw == null) return query;
+		for (String pair : raw.split("&"))
+		{
+			int equals = pair.indexOf('=');
+			if (equals < 0) continue;
+			query.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8), URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+		}
+		return query;
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		String port = Utils.getOption('p', args);
+		String numberThreads = Utils.getOption('t', args);
+		CAIMServer server = new CAIMServer(port.length() != 0 ? Integer.parseInt(port) : 8080,
+				numberThreads.length() != 0 ? Integer.parseInt(numberThreads) : Runtime.getRuntime().availableProcessors());
+		server.start();
+		System.out.println("CAIMServer listening on http://localhost:" + server.getPort() + "/discretize");
+	}
+}
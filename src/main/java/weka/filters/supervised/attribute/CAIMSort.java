@@ -0,0 +1,118 @@
+package weka.filters.supervised.attribute;
+
+/**
+ * Sorts a primitive double key array together with its int values, the Java
+ * counterpart of thrust::sort_by_key in gpu.cu. Keys are ordered as by
+ * Arrays.sort(double[]), and runs of equal keys are partitioned in a single
+ * pass, which suits attributes with few distinct values.
+ */
+final class CAIMSort
+{
+	private static final int INSERTION_THRESHOLD = 24;
+
+	private CAIMSort() {}
+
+	public static void sortByKey(double[] keys, int[] values, int from, int to)
+	{
+		int depth = 2 * (32 - Integer.numberOfLeadingZeros(Math.max(1, to - from)));
+		quicksort(keys, values, from, to - 1, depth);
+	}
+
+	private static void quicksort(double[] keys, int[] values, int low, int high, int depth)
+	{
+		while (high - low >= INSERTION_THRESHOLD)
+		{
+			if (depth-- == 0)
+			{
+				heapsort(keys, values, low, high);
+				return;
+			}
+
+			double pivot = medianOfThree(keys, low, (low + high) >>> 1, high);
+
+			// Three-way partition: [low, lt) < pivot, [lt, gt] == pivot, (gt, high] > pivot
+			int lt = low, gt = high, i = low;
+			while (i <= gt)
+			{
+				int cmp = Double.compare(keys[i], pivot);
+				if (cmp < 0) swap(keys, values, lt++, i++);
+				else if (cmp > 0) swap(keys, values, i, gt--);
+				else i++;
+			}
+
+			// Recurse into the smaller side, loop on the larger one
+			if (lt - low < high - gt)
+			{
+				quicksort(keys, values, low, lt - 1, depth);
+				low = gt + 1;
+			}
+			else
+			{
+				quicksort(keys, values, gt + 1, high, depth);
+				high = lt - 1;
+			}
+		}
+
+		insertionSort(keys, values, low, high);
+	}
+
+	private static double medianOfThree(double[] keys, int a, int b, int c)
+	{
+		double x = keys[a], y = keys[b], z = keys[c];
+		if (Double.compare(x, y) < 0)
+		{
+			if (Double.compare(y, z) < 0) return y;
+			return Double.compare(x, z) < 0 ? z : x;
+		}
+		if (Double.compare(x, z) < 0) return x;
+		return Double.compare(y, z) < 0 ? z : y;
+	}
+
+	private static void insertionSort(double[] keys, int[] values, int low, int high)
+	{
+		for (int i = low + 1; i <= high; i++)
+		{
+			double key = keys[i];
+			int value = values[i];
+			int j = i - 1;
+			while (j >= low && Double.compare(keys[j], key) > 0)
+			{
+				keys[j+1] = keys[j];
+				values[j+1] = values[j];
+				j--;
+			}
+			keys[j+1] = key;
+			values[j+1] = value;
+		}
+	}
+
+	private static void heapsort(double[] keys, int[] values, int low, int high)
+	{
+		int n = high - low + 1;
+		for (int i = n / 2 - 1; i >= 0; i--)
+			siftDown(keys, values, low, i, n);
+		for (int end = n - 1; end > 0; end--)
+		{
+			swap(keys, values, low, low + end);
+			siftDown(keys, values, low, 0, end);
+		}
+	}
+
+	private static void siftDown(double[] keys, int[] values, int offset, int root, int n)
+	{
+		while (2 * root + 1 < n)
+		{
+			int child = 2 * root + 1;
+			if (child + 1 < n && Double.compare(keys[offset + child], keys[offset + child + 1]) < 0) child++;
+			if (Double.compare(keys[offset + root], keys[offset + child]) >= 0) return;
+			swap(keys, values, offset + root, offset + child);
+			root = child;
+		}
+	}
+
+	private static void swap(double[] keys, int[] values, int i, int j)
+	{
+		double key = keys[i]; keys[i] = keys[j]; keys[j] = key;
+		int value = values[i]; values[i] = values[j]; values[j] = value;
+	}
+}
@@ -0,0 +1,138 @@
+package weka.filters.supervised.attribute;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Columns of sparse data holding only the stored (non-zero) entries of each
+ * attribute, gathered in one pass over the instances. The histogram of an
+ * attribute is built from its stored entries, and the count of each class at
+ * value zero follows from the class totals. Time and memory grow with the
+ * number of stored entries, not with instances times attributes.
+ */
+class CAIMSparseColumns
+{
+	private final int numberClasses;
+
+	// Instances of each class, counting only those with a known class
+	private final int[] classTotals;
+
+	// Per attribute: stored values with a known class, their classes, and their count
+	private final double[][] values;
+	private final int[][] classes;
+	private final int[] lengths;
+
+	// stored[attribute*numberClasses + class] = stored entries, missing values included
+	private final int[] stored;
+
+	/**
+	 * Gathers the attributes flagged in columns. The class is at classIndex.
+	 */
+	public CAIMSparseColumns(Instances data, int classIndex, int numberClasses, boolean[] columns)
+	{
+		int numberAttributes = data.numAttributes();
+		this.numberClasses = numberClasses;
+		classTotals = new int[numberClasses];
+		values = new double[numberAttributes][];
+		classes = new int[numberAttributes][];
+		lengths = new int[numberAttributes];
+		stored = new int[numberAttributes * numberClasses];
+
+		for (int i = 0; i < data.numInstances(); i++)
+		{
+			Instance instance = data.instance(i);
+			double classValue = instance.value(classIndex);
+			if (Utils.isMissingValue(classValue)) continue;
+
+			classTotals[(int) classValue]++;
+
+			for (int p = 0; p < instance.numValues(); p++)
+			{
+				int attribute = instance.index(p);
+				if (!columns[attribute]) continue;
+
+				stored[attribute*numberClasses + (int) classValue]++;
+				if (!Utils.isMissingValue(instance.valueSparse(p))) lengths[attribute]++;
+			}
+		}
+
+		for (int a = 0; a < numberAttributes; a++)
+		{
+			if (!columns[a]) continue;
+			values[a] = new double[lengths[a]];
+			classes[a] = new int[lengths[a]];
+			lengths[a] = 0;
+		}
+
+		for (int i = 0; i < data.numInstances(); i++)
+		{
+			Instance instance = data.instance(i);
+			double classValue = instance.value(classIndex);
+			if (Utils.isMissingValue(classValue)) continue;
+
+			for (int p = 0; p < instance.numValues(); p++)
+			{
+				int attribute = instance.index(p);
+				double value = instance.valueSparse(p);
+				if (!columns[attribute] || Utils.isMissingValue(value)) continue;
+
+				values[attribute][lengths[attribute]] = value;
+				classes[attribute][lengths[attribute]] = (int) classValue;
+				lengths[attribute]++;
+			}
+		}
+	}
+
+	/**
+	 * Stored values of an attribute with a known class, an upper bound of its distinct values but zero.
+	 */
+	public int numberStored(int attribute)
+	{
+		return lengths[attribute];
+	}
+
+	/**
+	 * Histogram of an attribute. Can be called once per attribute, as it sorts the column in place.
+	 */
+	public CAIMHistogram histogram(int attribute)
+	{
+		CAIMHistogram histogram = CAIMHistogram.build(values[attribute], classes[attribute], lengths[attribute], numberClasses);
+		values[attribute] = null;
+		classes[attribute] = null;
+
+		int[] zeros = new int[numberClasses];
+		int totalZeros = 0;
+		for (int c = 0; c < numberClasses; c++)
+		{
+			zeros[c] = classTotals[c] - stored[attribute*numberClasses + c];
+			totalZeros += zeros[c];
+		}
+
+		if (totalZeros == 0) return histogram;
+
+		// Position of the zero bucket among the sorted distinct values
+		int numberValues = histogram.numberValues;
+		int position = 0;
+		while (position < numberValues && Double.compare(histogram.values[position], 0.0) < 0) position++;
+
+		if (position < numberValues && Double.compare(histogram.values[position], 0.0) == 0)
+		{
+			for (int c = 0; c < numberClasses; c++)
+				histogram.appearance[position*numberClasses + c] += zeros[c];
+			return histogram;
+		}
+
+		double[] merged = new double[numberValues + 1];
+		int[] appearance = new int[(numberValues + 1) * numberClasses];
+
+		System.arraycopy(histogram.values, 0, merged, 0, position);
+		System.arraycopy(histogram.values, position, merged, position + 1, numberValues - position);
+		System.arraycopy(histogram.appearance, 0, appearance, 0, position * numberClasses);
+		System.arraycopy(histogram.appearance, position * numberClasses, appearance, (position + 1) * numberClasses, (numberValues - position) * numberClasses);
+		System.arraycopy(zeros, 0, appearance, position * numberClasses, numberClasses);
+		merged[position] = 0.0;
+
+		return new CAIMHistogram(merged, numberValues + 1, numberClasses, appearance);
+	}
+}
@@ -0,0 +1,188 @@
+package weka.filters.supervised.attribute;
+
+import java.io.Serializable;
+
+/**
+ * Class-count summary of one numeric attribute, updated one instance at a
+ * time in bounded memory. It is an exact histogram while the attribute has at
+ * most maxBins distinct values. After that, whenever 2*maxBins bins are held,
+ * adjacent bins are merged down to at most maxBins, each covering a value
+ * range: first neighbours holding only the same class, as no CAIM boundary
+ * lies between them, then runs of bins up to an equal share of the instances,
+ * so the bins approximate quantiles.
+ */
+class CAIMStreamingHistogram implements Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	private final int maxBins;
+	private final int numberClasses;
+
+	// Bins in ascending order: value range [lower, upper], class counts and total
+	private final double[] lower;
+	private final double[] upper;
+	private final int[] counts;
+	private final int[] totals;
+	private int numberBins;
+
+	public CAIMStreamingHistogram(int maxBins, int numberClasses)
+	{
+		this.maxBins = Math.max(2, maxBins);
+		this.numberClasses = numberClasses;
+		lower = new double[2 * this.maxBins];
+		upper = new double[2 * this.maxBins];
+		counts = new int[2 * this.maxBins * numberClasses];
+		totals = new int[2 * this.maxBins];
+	}
+
+	public int numberBins()
+	{
+		return numberBins;
+	}
+
+	/**
+	 * Whether every bin still holds a single distinct value.
+	 */
+	public boolean isExact()
+	{
+		for (int i = 0; i < numberBins; i++)
+			if (Double.compare(lower[i], upper[i]) != 0) return false;
+		return true;
+	}
+
+	public void add(double value, int classValue)
+	{
+		add(value, value, classValue, 1);
+	}
+
+	private void add(double from, double to, int classValue, int count)
+	{
+		// First bin whose upper end is not below the range
+		int low = 0, high = numberBins;
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (Double.compare(upper[mid], from) < 0) low = mid + 1; else high = mid;
+		}
+
+		if (low < numberBins && Double.compare(lower[low], to) <= 0)
+		{
+			// Overlaps existing bins: count it in the one nearest its centre, which keeps the bins disjoint
+			int bin = nearest(from + (to - from) / 2);
+			counts[bin*numberClasses + classValue] += count;
+			totals[bin] += count;
+			return;
+		}
+
+		System.arraycopy(lower, low, lower, low + 1, numberBins - low);
+		System.arraycopy(upper, low, upper, low + 1, numberBins - low);
+		System.arraycopy(totals, low, totals, low + 1, numberBins - low);
+		System.arraycopy(counts, low*numberClasses, counts, (low + 1)*numberClasses, (numberBins - low)*numberClasses);
+
+		lower[low] = from;
+		upper[low] = to;
+		totals[low] = count;
+		for (int c = 0; c < numberClasses; c++)
+			counts[low*numberClasses + c] = 0;
+		counts[low*numberClasses + classValue] = count;
+		numberBins++;
+
+		if (numberBins == lower.length)
+			compress();
+	}
+
+	// Bin containing or nearest to a point
+	private int nearest(double point)
+	{
+		int low = 0, high = numberBins - 1;
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (Double.compare(upper[mid], point) < 0) low = mid + 1; else high = mid;
+		}
+
+		if (low > 0 && Double.compare(lower[low], point) > 0 && point - upper[low-1] < lower[low] - point)
+			low--;
+
+		return low;
+	}
+
+	// Merges adjacent bins until at most maxBins remain
+	private void compress()
+	{
+		if (numberBins <= maxBins) return;
+
+		int kept = 0;
+		for (int i = 1; i < numberBins; i++)
+		{
+			if (sameClass(kept, i)) absorb(kept, i);
+			else move(i, ++kept);
+		}
+		numberBins = kept + 1;
+
+		long total = 0;
+		for (int i = 0; i < numberBins; i++)
+			total += totals[i];
+
+		for (long share = Math.max(1, total / maxBins); numberBins > maxBins; share *= 2)
+		{
+			kept = 0;
+			for (int i = 1; i < numberBins; i++)
+			{
+				if ((long) totals[kept] + totals[i] <= share) absorb(kept, i);
+				else move(i, ++kept);
+			}
+			numberBins = kept + 1;
+		}
+	}
+
+	// Whether both bins hold instances of one and the same class only
+	private boolean sameClass(int a, int b)
+	{
+		for (int c = 0; c < numberClasses; c++)
+		{
+			int countA = counts[a*numberClasses + c];
+			int countB = counts[b*numberClasses + c];
+			if (countA != 0 && countA != totals[a]) return false;
+			if (countB != 0 && countB != totals[b]) return false;
+			if ((countA == 0) != (countB == 0)) return false;
+		}
+		return true;
+	}
+
+	// Adds bin from, which lies above bin to, into bin to
+	private void absorb(int to, int from)
+	{
+		if (Double.compare(upper[from], upper[to]) > 0) upper[to] = upper[from];
+		totals[to] += totals[from];
+		for (int c = 0; c < numberClasses; c++)
+			counts[to*numberClasses + c] += counts[from*numberClasses + c];
+	}
+
+	private void move(int from, int to)
+	{
+		if (from == to) return;
+		lower[to] = lower[from];
+		upper[to] = upper[from];
+		totals[to] = totals[from];
+		System.arraycopy(counts, from*numberClasses, counts, to*numberClasses, numberClasses);
+	}
+
+	/**
+	 * Histogram over at most maxBins bins, for the CAIM search.
+	 */
+	public CAIMHistogram toHistogram()
+	{
+		compress();
+
+		double[] values = new double[numberBins];
+		double[] upperValues = new double[numberBins];
+		int[] appearance = new int[numberBins * numberClasses];
+
+		System.arraycopy(lower, 0, values, 0, numberBins);
+		System.arraycopy(upper, 0, upperValues, 0, numberBins);
+		System.arraycopy(counts, 0, appearance, 0, numberBins * numberClasses);
+
+		return new CAIMHistogram(values, isExact() ? null : upperValues, numberBins, numberClasses, appearance);
+	}
+}
@@ -0,0 +1,332 @@
+package weka.filters.supervised.attribute;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+import weka.core.Utils;
+
+/**
+ * Discretizes shards of attributes sent by a CAIMCoordinator over a socket.
+ * A connection starts with the search options and the class vector, and
+ * then carries any number of requests. Each request holds the shard's
+ * attributes, each as its sorted distinct values and the rank code of every
+ * row, which are counted into histograms as they are read. The histograms
+ * are searched in parallel, and the request is answered with their cut
+ * points. While searching, the worker sends a heartbeat every few seconds.
+ *
+ * Sizes read from a connection are checked against this JVM's maximum heap
+ * before anything is allocated for them. A connection that fails is answered
+ * with an error if the coordinator is still reading, counted, and passed to
+ * the error listener, which main sets to print it.
+ *
+ * Run with -p &lt;port&gt;, or -p 0 for any free port, and -b &lt;address&gt;
+ * to listen on, by default the loopback address only. The port is printed
+ * on the first line of standard output.
+ */
+public class CAIMWorker
+{
+	static final int MAGIC = 0x4341494d;
+
+	// Answers an error instead of a number of attributes
+	static final int ERROR = -1;
+
+	// Sent instead of a number of attributes while the request is still being searched
+	static final int HEARTBEAT = -2;
+
+	// Milliseconds between heartbeats
+	static final int HEARTBEAT_INTERVAL = 5000;
+
+	// Flags of an attribute's answer
+	static final int TRUNCATED = 1;
+	static final int PRUNING_MISMATCH = 2;
+
+	// Most class values and attributes per request
+	private static final int MAX_CLASSES = 1 << 16;
+	private static final int MAX_ATTRIBUTES = 1 << 20;
+
+	private final ServerSocket server;
+
+	// Connections ended by an error, and who is told of each
+	private final AtomicInteger errors = new AtomicInteger();
+	private volatile Consumer<IOException> errorListener;
+
+	/**
+	 * Worker listening on port of the loopback address.
+	 */
+	public CAIMWorker(int port) throws IOException
+	{
+		this(InetAddress.getLoopbackAddress(), port);
+	}
+
+	/**
+	 * Worker listening on port of address, or of all addresses if null.
+	 */
+	public CAIMWorker(InetAddress address, int port) throws IOException
+	{
+		server = new ServerSocket();
+		server.bind(new InetSocketAddress(address, port));
+	}
+
+	public int getPort()
+	{
+		return server.getLocalPort();
+	}
+
+	/**
+	 * Connections ended by an error since the worker started.
+	 */
+	public int getErrors()
+	{
+		return errors.get();
+	}
+
+	/**
+	 * Receives the error of each failed connection, on that connection's thread.
+	 */
+	public void setErrorListener(Consumer<IOException> listener)
+	{
+		errorListener = listener;
+	}
+
+	/**
+	 * Accepts connections until the server socket is closed, serving each on its own thread.
+	 */
+	public void serve() throws IOException
+	{
+		while (true)
+		{
+			Socket socket = server.accept();
+			Thread thread = new Thread(() -> connection(socket), "CAIMWorker " + socket.getRemoteSocketAddress());
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	private void connection(Socket socket)
+	{
+		IOException failure = null;
+		try (Socket s = socket)
+		{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+
+			try
+			{
+				requests(in, out);
+			}
+			catch (IOException e)
+			{
+				// Reported to the coordinator if it is still reading, before the connection is closed
+				failure = e;
+				out.writeInt(ERROR);
+				out.writeUTF(String.valueOf(e));
+				out.flush();
+			}
+		}
+		catch (IOException e)
+		{
+			// Also reached when the coordinator has gone before reading the error above
+			if (failure == null) failure = e;
+		}
+
+		if (failure != null)
+		{
+			errors.incrementAndGet();
+			Consumer<IOException> listener = errorListener;
+			if (listener != null) listener.accept(failure);
+		}
+	}
+
+	// Reads the start of a connection, then answers its requests until it is closed
+	private void requests(DataInputStream in, DataOutputStream out) throws IOException
+	{
+		int magic;
+		try { magic = in.readInt(); }
+		catch (EOFException e) { return; }
+		if (magic != MAGIC) throw new IOException("Not a CAIMCoordinator connection");
+
+		CAIMCPU searcher = new CAIMCPU();
+		searcher.setBoundaryCandidates(in.readBoolean());
+		searcher.setIntervalCache(in.readBoolean());
+		searcher.setValidatePruning(in.readBoolean());
+		searcher.setMaxIntervals(in.readInt());
+		searcher.setAttributeTimeBudget(in.readLong());
+		long runBudget = in.readLong();
+		searcher.m_RunBudgetEnd = runBudget > 0 ? System.nanoTime() + runBudget * 1000000L : 0;
+
+		int numberClasses = in.readInt();
+		if (numberClasses < 1 || numberClasses > MAX_CLASSES) throw new IOException("Invalid number of classes " + numberClasses);
+		searcher.ClassValueList = new ArrayList<String>(numberClasses);
+		for (int c = 0; c < numberClasses; c++) searcher.ClassValueList.add("" + c);
+
+		int numberInstances = in.readInt();
+		if (numberInstances < 0) throw new IOException("Invalid number of instances " + numberInstances);
+		reserve(4L * numberInstances);
+		int[] classes = new int[numberInstances];
+		for (int i = 0; i < numberInstances; i++)
+		{
+			classes[i] = readCode(in, numberClasses);
+			if (classes[i] >= numberClasses) throw new IOException("Class code " + classes[i] + " out of range");
+		}
+
+		while (true)
+		{
+			int numberAttributes;
+			try { numberAttributes = in.readInt(); }
+			catch (EOFException e) { return; }
+
+			request(in, out, searcher, classes, numberClasses, numberAttributes);
+			out.flush();
+		}
+	}
+
+	// Reads one request, after its number of attributes, and writes the answer with heartbeats before it
+	private void request(DataInputStream in, DataOutputStream out, CAIMCPU searcher, int[] classes, int numberClasses, int numberAttributes) throws IOException
+	{
+		if (numberAttributes < 0 || numberAttributes > MAX_ATTRIBUTES) throw new IOException("Invalid number of attributes " + numberAttributes);
+
+		int numberInstances = classes.length;
+		int[] attributes = new int[numberAttributes];
+		CAIMHistogram[] histograms = new CAIMHistogram[numberAttributes];
+		long bytes = 0;
+		for (int a = 0; a < numberAttributes; a++)
+		{
+			attributes[a] = in.readInt();
+			int numberValues = in.readInt();
+			if (numberValues < 0 || numberValues > numberInstances) throw new IOException("Invalid number of values " + numberValues);
+			bytes += (8L + 4L * numberClasses) * numberValues;
+			if ((long) numberValues * numberClasses > Integer.MAX_VALUE - 8) throw new IOException("Histogram of " + numberValues + " values is too large");
+			reserve(bytes);
+
+			double[] values = new double[numberValues];
+			for (int v = 0; v < numberValues; v++) values[v] = in.readDouble();
+			int[] counts = new int[numberValues * numberClasses];
+			for (int i = 0; i < numberInstances; i++)
+			{
+				int code = readCode(in, numberValues);
+				if (code >= numberValues) throw new IOException("Value code " + code + " out of range");
+				if (code >= 0 && classes[i] >= 0) counts[code*numberClasses + classes[i]]++;
+			}
+			histograms[a] = CAIMColumnStore.histogram(values, counts, numberClasses);
+		}
+
+		ArrayList<ArrayList<Double>> schemes = new ArrayList<ArrayList<Double>>(numberAttributes);
+		CAIMAttributeMetrics[] metrics = new CAIMAttributeMetrics[numberAttributes];
+		for (int a = 0; a < numberAttributes; a++)
+		{
+			schemes.add(null);
+			metrics[a] = new CAIMAttributeMetrics(attributes[a], null);
+		}
+
+		Future<?> search = ForkJoinPool.commonPool().submit(() -> IntStream.range(0, numberAttributes).parallel().forEach(a -> {
+			schemes.set(a, searcher.Discretize(histograms[a], attributes[a], metrics[a]));
+			histograms[a] = null;
+		}));
+
+		try
+		{
+			while (true)
+			{
+				try
+				{
+					search.get(HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
+					break;
+				}
+				catch (TimeoutException e)
+				{
+					out.writeInt(HEARTBEAT);
+					out.flush();
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			// The coordinator is gone, so the searches are stopped
+			searcher.cancel();
+			throw e;
+		}
+		catch (InterruptedException e)
+		{
+			searcher.cancel();
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted", e);
+		}
+		catch (ExecutionException e)
+		{
+			out.writeInt(ERROR);
+			out.writeUTF(String.valueOf(e.getCause()));
+			return;
+		}
+
+		out.writeInt(numberAttributes);
+		for (int a = 0; a < numberAttributes; a++)
+		{
+			out.writeInt(attributes[a]);
+			out.writeByte((metrics[a].truncated ? TRUNCATED : 0) | (metrics[a].pruningMismatch ? PRUNING_MISMATCH : 0));
+			out.writeInt(schemes.get(a).size());
+			for (double cut : schemes.get(a)) out.writeDouble(cut);
+		}
+	}
+
+	// Fails before allocating for a request whose arrays could not fit in half the maximum heap
+	private static void reserve(long bytes) throws IOException
+	{
+		if (bytes > Runtime.getRuntime().maxMemory() / 2)
+			throw new IOException("Request of " + bytes + " bytes exceeds this worker's heap");
+	}
+
+	/**
+	 * Writes code, or -1 for none, in the narrowest of byte, short or int holding numberCodes codes
+	 * and the all-ones code for none, as CAIMColumnStore stores them.
+	 */
+	static void writeCode(DataOutputStream out, int code, int numberCodes) throws IOException
+	{
+		if (numberCodes < 0xFF) out.writeByte(code);
+		else if (numberCodes < 0xFFFF) out.writeShort(code);
+		else out.writeInt(code);
+	}
+
+	static int readCode(DataInputStream in, int numberCodes) throws IOException
+	{
+		if (numberCodes < 0xFF)
+		{
+			int code = in.readUnsignedByte();
+			return code == 0xFF ? -1 : code;
+		}
+		if (numberCodes < 0xFFFF)
+		{
+			int code = in.readUnsignedShort();
+			return code == 0xFFFF ? -1 : code;
+		}
+		int code = in.readInt();
+		return code < 0 ? -1 : code;
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		String port = Utils.getOption('p', args);
+		String address = Utils.getOption('b', args);
+		CAIMWorker worker = new CAIMWorker(address.length() != 0 ? InetAddress.getByName(address) : InetAddress.getLoopbackAddress(), port.length() != 0 ? Integer.parseInt(port) : 0);
+		worker.setErrorListener(e -> System.err.println("CAIMWorker: " + e));
+		System.out.println("CAIMWorker listening on port " + worker.getPort());
+		System.out.flush();
+		worker.serve();
+	}
+}
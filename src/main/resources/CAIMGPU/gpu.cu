@@ -2,8 +2,21 @@
 
 __global__ void computeCAIMValues(float* caimValues, int* appearance, int* intervals, int numberIntervals, int numberClasses, int numbermidPoints);
 
-JNIEXPORT void JNICALL
-Java_weka_filters_supervised_attribute_CAIMGPU_initializeGPU(JNIEnv *env, jobject obj, jobject algorithm, jint attribute, jint numberClasses, jint numberAttributes, jint numberInstances)
+JNIEXPORT jint JNICALL
+Java_weka_filters_supervised_attribute_CAIMGPU_getDeviceCount(JNIEnv *env, jobject obj)
+{
+	int deviceCount = 0;
+	
+	if (cudaGetDeviceCount(&deviceCount) != cudaSuccess)
+		return 0;
+	
+	return deviceCount;
+}
+
+// Discretizes one attribute on the given device. The input arrays are only read.
+// Writes the sorted cut points, including both end points, to scheme and returns how many there are.
+// scheme must hold numberInstances + 1 values.
+static int discretize(int device, const float* attributeValues, const int* classValues, int numberClasses, int numberInstances, float* scheme)
 {
 	int deviceCount, numberValues, numberIntervals, numbermidPoints, iteration = 1;
 	int *h_appearance, *d_appearance, *h_classValues, *d_classValues;
@@ -16,25 +29,17 @@ Java_weka_filters_supervised_attribute_CAIMGPU_initializeGPU(JNIEnv *env, jobjec
 	cudaSetDeviceFlags(cudaDeviceScheduleSpin);
 	cudaGetDeviceCount(&deviceCount);
 	
-	cudaSetDevice(attribute % deviceCount);
-
-	jclass cls = env->GetObjectClass(algorithm);
-	jmethodID getAttributeValues = env->GetMethodID(cls, "getAttributeValues", "(I)[F");
-	jmethodID getClassValues = env->GetMethodID(cls, "getClassValues", "()[I");
-	jmethodID addInterval = env->GetMethodID(cls, "addInterval", "(IF)V");
+	cudaSetDevice(device % deviceCount);
 	
-	jfloatArray jattributeValues = (jfloatArray) env->CallObjectMethod(algorithm, getAttributeValues, attribute);
-	jintArray jclassValues = (jintArray) env->CallObjectMethod(algorithm, getClassValues);
-	
-	h_attributeValues = (float*) env->GetFloatArrayElements(jattributeValues, 0);
-	h_classValues = (int*) env->GetIntArrayElements(jclassValues, 0);
+	h_attributeValues = (float*) malloc(numberInstances * sizeof(float));
+	h_classValues = (int*) malloc(numberInstances * sizeof(int));
 	
 	h_appearance = (int*) calloc(numberClasses * numberInstances, sizeof(int)); 
 	cudaMalloc((void**) &d_attributeValues, numberInstances * sizeof(float));
 	cudaMalloc((void**) &d_classValues, numberInstances * sizeof(int));
 	
-	cudaMemcpy(d_attributeValues, h_attributeValues, numberInstances * sizeof(float), cudaMemcpyHostToDevice );
-	cudaMemcpy(d_classValues, h_classValues, numberInstances * sizeof(int), cudaMemcpyHostToDevice );
+	cudaMemcpy(d_attributeValues, attributeValues, numberInstances * sizeof(float), cudaMemcpyHostToDevice );
+	cudaMemcpy(d_classValues, classValues, numberInstances * sizeof(int), cudaMemcpyHostToDevice );
 	
 	thrust::device_ptr<float> d_attributeValues_ptr = thrust::device_pointer_cast(d_attributeValues);
 	thrust::device_ptr<int>   d_classValues_ptr = thrust::device_pointer_cast(d_classValues);
@@ -145,15 +150,12 @@ Java_weka_filters_supervised_attribute_CAIMGPU_initializeGPU(JNIEnv *env, jobjec
 		if (numbermidPointsRemaining == 0) break;
 	}
 	
-	env->CallVoidMethod(algorithm, addInterval, attribute, h_attributeValues[0]);
+	scheme[0] = h_attributeValues[0];
 	
 	for(int i = 1; i < numberIntervals - 1; i++)
-		env->CallVoidMethod(algorithm, addInterval, attribute, h_midpoints[h_intervals[i]-1]);
-		
-	env->CallVoidMethod(algorithm, addInterval, attribute, h_attributeValues[numberValues-1]);
+		scheme[i] = h_midpoints[h_intervals[i]-1];
 		
-	env->ReleaseFloatArrayElements(jattributeValues, h_attributeValues, 0);
-	env->ReleaseIntArrayElements(jclassValues, h_classValues, 0);
+	scheme[numberIntervals - 1] = h_attributeValues[numberValues-1];
 	
 	cudaFree(d_attributeValues);
 	cudaFree(d_classValues);
@@ -161,11 +163,59 @@ Java_weka_filters_supervised_attribute_CAIMGPU_initializeGPU(JNIEnv *env, jobjec
 	cudaFree(d_appearance);
 	cudaFree(d_caimValues);
 	
+	free(h_attributeValues);
+	free(h_classValues);
 	free(h_appearance);
 	free(h_caimValues);
 	free(h_intervals);
 	free(h_midpoints);
 	free(tempInterval);
+	
+	return numberIntervals;
+}
+
+JNIEXPORT void JNICALL
+Java_weka_filters_supervised_attribute_CAIMGPU_initializeGPU(JNIEnv *env, jobject obj, jobject algorithm, jint attribute, jint numberClasses, jint numberAttributes, jint numberInstances)
+{
+	jclass cls = env->GetObjectClass(algorithm);
+	jmethodID getAttributeValues = env->GetMethodID(cls, "getAttributeValues", "(I)[F");
+	jmethodID getClassValues = env->GetMethodID(cls, "getClassValues", "()[I");
+	jmethodID addInterval = env->GetMethodID(cls, "addInterval", "(IF)V");
+	
+	jfloatArray jattributeValues = (jfloatArray) env->CallObjectMethod(algorithm, getAttributeValues, attribute);
+	jintArray jclassValues = (jintArray) env->CallObjectMethod(algorithm, getClassValues);
+	
+	float* h_attributeValues = (float*) env->GetFloatArrayElements(jattributeValues, 0);
+	int* h_classValues = (int*) env->GetIntArrayElements(jclassValues, 0);
+	float* scheme = (float*) malloc((numberInstances + 1) * sizeof(float));
+	
+	int numberBoundaries = discretize(attribute, h_attributeValues, h_classValues, numberClasses, numberInstances, scheme);
+	
+	env->ReleaseFloatArrayElements(jattributeValues, h_attributeValues, JNI_ABORT);
+	env->ReleaseIntArrayElements(jclassValues, h_classValues, JNI_ABORT);
+	
+	for(int i = 0; i < numberBoundaries; i++)
+		env->CallVoidMethod(algorithm, addInterval, attribute, scheme[i]);
+	
+	free(scheme);
+}
+
+JNIEXPORT jfloatArray JNICALL
+Java_weka_filters_supervised_attribute_CAIMGPU_discretizeGPU(JNIEnv *env, jobject obj, jobject attributeValues, jobject classValues, jint numberInstances, jint numberClasses, jint device)
+{
+	// Staged direct buffers are read in place, without copying into the JVM heap
+	const float* h_attributeValues = (const float*) env->GetDirectBufferAddress(attributeValues);
+	const int* h_classValues = (const int*) env->GetDirectBufferAddress(classValues);
+	float* scheme = (float*) malloc((numberInstances + 1) * sizeof(float));
+	
+	int numberBoundaries = discretize(device, h_attributeValues, h_classValues, numberClasses, numberInstances, scheme);
+	
+	jfloatArray result = env->NewFloatArray(numberBoundaries);
+	env->SetFloatArrayRegion(result, 0, numberBoundaries, scheme);
+	
+	free(scheme);
+	
+	return result;
 }
 
 __device__ float calculate(int left, int right, int* appearance, int numberClasses)
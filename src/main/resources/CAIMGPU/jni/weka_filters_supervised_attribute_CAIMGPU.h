@@ -11,6 +11,8 @@ extern "C" {
 #define weka_filters_supervised_attribute_CAIMGPU_serialVersionUID -8835063755891851218LL
 #undef weka_filters_supervised_attribute_CAIMGPU_serialVersionUID
 #define weka_filters_supervised_attribute_CAIMGPU_serialVersionUID 1LL
+#undef weka_filters_supervised_attribute_CAIMGPU_SHARD_ROWS
+#define weka_filters_supervised_attribute_CAIMGPU_SHARD_ROWS 65536L
 #undef weka_filters_supervised_attribute_CAIMGPU_serialVersionUID
 #define weka_filters_supervised_attribute_CAIMGPU_serialVersionUID 1LL
 /*
@@ -21,6 +23,22 @@ extern "C" {
 JNIEXPORT void JNICALL Java_weka_filters_supervised_attribute_CAIMGPU_initializeGPU
   (JNIEnv *, jobject, jobject, jint, jint, jint, jint);
 
+/*
+ * Class:     weka_filters_supervised_attribute_CAIMGPU
+ * Method:    discretizeGPU
+ * Signature: (Ljava/nio/FloatBuffer;Ljava/nio/IntBuffer;III)[F
+ */
+JNIEXPORT jfloatArray JNICALL Java_weka_filters_supervised_attribute_CAIMGPU_discretizeGPU
+  (JNIEnv *, jobject, jobject, jobject, jint, jint, jint);
+
+/*
+ * Class:     weka_filters_supervised_attribute_CAIMGPU
+ * Method:    getDeviceCount
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_weka_filters_supervised_attribute_CAIMGPU_getDeviceCount
+  (JNIEnv *, jobject);
+
 #ifdef __cplusplus
 }
 #endif